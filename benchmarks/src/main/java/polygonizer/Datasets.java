@@ -0,0 +1,56 @@
+package polygonizer;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Inputs shared by the benchmarks:
+ * - The bundled datasets (street_segments, streets_sp, lagoa), read from the directory in the "polygonizer.data" system property,
+ *   or by default from the src directory of the checkout that built the jar, wherever it is run from
+ * - Synthetic scale-ups from {@link Polygonizer#circles}: "circlesN" has N levels of nested circles
+ */
+class Datasets {
+    static List<LineString> load(String name) {
+        if (name.startsWith("circles")) {
+            int levels = Integer.parseInt(name.substring("circles".length()));
+            return Polygonizer.circles(0, 0, 0.01, levels);
+        }
+        return Lists.newArrayList(new SegmentReader(file(name)));
+    }
+
+    static File file(String name) {
+        String dir = System.getProperty("polygonizer.data");
+        File file = new File(dir != null ? new File(dir) : defaultDirectory(), name + ".wkt");
+        if (!file.exists()) {
+            throw new IllegalArgumentException("Dataset not found: " + file.getAbsolutePath() + " -- Set -Dpolygonizer.data=<path to src>");
+        }
+        return file;
+    }
+
+    /**
+     * benchmarks/target/benchmarks.jar or benchmarks/target/classes -> src, or ../src if the location is unknown
+     */
+    private static File defaultDirectory() {
+        try {
+            File location = new File(Datasets.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            File target = location.isFile() ? location.getParentFile() : location; //The jar, or target/classes
+            while (target != null && !target.getName().equals("target")) {
+                target = target.getParentFile();
+            }
+            if (target != null) {
+                return new File(target.getParentFile().getParentFile(), "src");
+            }
+        } catch (URISyntaxException | SecurityException e) {
+            //Fall back to the working directory
+        }
+        return new File("../src");
+    }
+
+    static double meters(double meters) {
+        return Math.toDegrees(meters / 6378137.0);
+    }
+}
@@ -0,0 +1,72 @@
+package polygonizer;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Graph construction, face traversal and hole assignment
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphBenchmark {
+    @Param({"street_segments", "streets_sp", "lagoa", "circles5", "circles7"})
+    String dataset;
+
+    @Param({"false", "true"})
+    boolean compact;
+
+    List<LineString> segments;
+    Polygonizer polygonizer;
+
+    @Setup
+    public void setup() {
+        segments = Datasets.load(dataset);
+        polygonizer = new Polygonizer(segments, compact);
+    }
+
+    @Benchmark
+    public Polygonizer build() {
+        return new Polygonizer(segments, compact);
+    }
+
+    @Benchmark
+    public void cycles(Blackhole blackhole) {
+        for (Polygonizer.Cycle cycle : polygonizer.cycles()) {
+            blackhole.consume(cycle);
+        }
+    }
+
+    @Benchmark
+    public void parallelCycles(Blackhole blackhole) {
+        for (Polygonizer.Cycle cycle : polygonizer.cycles(ForkJoinPool.commonPool(), true)) {
+            blackhole.consume(cycle);
+        }
+    }
+
+    @Benchmark
+    public void fixTopology(Blackhole blackhole) {
+        for (Polygonizer.Cycle cycle : polygonizer.fix_topology()) {
+            blackhole.consume(cycle);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package polygonizer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link IntervalIndex} operations, on the same data as {@link RangeMultiMapBenchmark}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntervalIndexBenchmark {
+    private static final int QUERIES = 1000;
+
+    @Param({"1000", "100000", "300000"})
+    int size;
+
+    Envelope1D[] ranges;
+    Envelope1D[] queries;
+    IntervalIndex<Integer> map;
+    int[] handles;
+    final Counter counter = new Counter();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ranges = new Envelope1D[size];
+        for (int i=0; i<size; i++) {
+            double min = random.nextDouble() * 10000;
+            ranges[i] = new Envelope1D(min, min + random.nextDouble() * 100);
+        }
+        queries = new Envelope1D[QUERIES];
+        for (int i=0; i<QUERIES; i++) {
+            double min = random.nextDouble() * 10000;
+            queries[i] = new Envelope1D(min, min + random.nextDouble() * 100);
+        }
+        handles = new int[size];
+        map = new IntervalIndex<>();
+        for (int i=0; i<size; i++) {
+            map.put(ranges[i], i);
+        }
+    }
+
+    @Benchmark
+    public IntervalIndex<Integer> putAll() {
+        IntervalIndex<Integer> map = new IntervalIndex<>();
+        for (int i=0; i<size; i++) {
+            map.put(ranges[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public IntervalIndex<Integer> putAllRemoveAll() {
+        IntervalIndex<Integer> map = putAll();
+        for (int i=0; i<size; i++) {
+            map.remove(ranges[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public IntervalIndex<Integer> putAllRemoveAllByHandle() {
+        IntervalIndex<Integer> map = new IntervalIndex<>();
+        for (int i=0; i<size; i++) {
+            handles[i] = map.add(ranges[i].min, ranges[i].max, i);
+        }
+        for (int i=0; i<size; i++) {
+            map.remove(handles[i]);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int query() {
+        int count = 0;
+        for (Envelope1D query : queries) {
+            for (Integer value : map.getValues(query)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int queryVisitor() {
+        counter.count = 0;
+        for (Envelope1D query : queries) {
+            map.query(query.min, query.max, counter);
+        }
+        return counter.count;
+    }
+
+    static class Counter implements IntervalIndex.Visitor<Integer> {
+        int count;
+        @Override
+        public void visit(Integer value) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package polygonizer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * {@link BoundingBoxMatcher} against {@link STRtree}, on the same random envelopes as {@link BoundingBoxMatcher#main}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MatcherBenchmark {
+    @Param({"10000", "100000"})
+    int size;
+
+    List<Envelope> envelopes;
+    double[] minX, maxX, minY, maxY;
+    STRtree strTree;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        envelopes = new ArrayList<>();
+        for (int i=0; i<size; i++) {
+            int x1 = random.nextInt(10000);
+            int x2 = x1 + random.nextInt(100);
+            int y1 = random.nextInt(10000);
+            int y2 = y1 + random.nextInt(100);
+            envelopes.add(new Envelope(x1, x2, y1, y2));
+        }
+        Collections.sort(envelopes, new Comparator<Envelope>() {
+            @Override
+            public int compare(Envelope o1, Envelope o2) {
+                return Double.compare(o1.getMinX(), o2.getMinX());
+            }
+        });
+        minX = new double[size];
+        maxX = new double[size];
+        minY = new double[size];
+        maxY = new double[size];
+        for (int i=0; i<size; i++) {
+            minX[i] = envelopes.get(i).getMinX();
+            maxX[i] = envelopes.get(i).getMaxX();
+            minY[i] = envelopes.get(i).getMinY();
+            maxY[i] = envelopes.get(i).getMaxY();
+        }
+        strTree = buildStrTree();
+    }
+
+    private STRtree buildStrTree() {
+        STRtree tree = new STRtree();
+        for (Envelope envelope : envelopes) {
+            tree.insert(envelope, envelope);
+        }
+        tree.build();
+        return tree;
+    }
+
+    @Benchmark
+    public int boundingBoxMatcher() {
+        int count = 0;
+        BoundingBoxMatcher<Envelope> matcher = new BoundingBoxMatcher<>(envelopes, new Function<Envelope, Envelope>() {
+            public Envelope apply(Envelope a) {
+                return a;
+            }
+        });
+        for (BoundingBoxMatcher<Envelope>.Match m : matcher) {
+            if (m.matches != null) {
+                for (Envelope e : m.matches) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int boundingBoxMatcherParallel() {
+        int count = 0;
+        BoundingBoxMatcher<Envelope> matcher = new BoundingBoxMatcher<>(envelopes, new Function<Envelope, Envelope>() {
+            public Envelope apply(Envelope a) {
+                return a;
+            }
+        }, ForkJoinPool.commonPool(), 2 * ForkJoinPool.commonPool().getParallelism(), 4096, false);
+        for (BoundingBoxMatcher<Envelope>.Match m : matcher) {
+            if (m.matches != null) {
+                count += Iterables.size(m.matches);
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int boundingBoxMatcherVisitor() {
+        final int[] count = new int[1];
+        BoundingBoxMatcher.match(envelopes, new Function<Envelope, Envelope>() {
+            public Envelope apply(Envelope a) {
+                return a;
+            }
+        }, new BoundingBoxMatcher.MatchVisitor<Envelope>() {
+            @Override
+            public void matched(Envelope value, BoundingBoxMatcher.Candidates<Envelope> candidates) {
+                count[0] += candidates.size();
+            }
+            @Override
+            public void retired(Envelope value) {
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public int boundingBoxMatcherArrays() {
+        final int[] count = new int[1];
+        BoundingBoxMatcher.match(minX, maxX, minY, maxY, new BoundingBoxMatcher.IndexMatchVisitor() {
+            @Override
+            public void matched(int index, int[] candidates, int n) {
+                count[0] += n;
+            }
+            @Override
+            public void retired(int index) {
+            }
+        });
+        return count[0];
+    }
+
+    @Benchmark
+    public int strTreeQuery() {
+        int count = 0;
+        for (Envelope e : envelopes) {
+            count += strTree.query(e).size() - 1;
+        }
+        return count / 2;
+    }
+
+    @Benchmark
+    public int strTreeBuildAndQuery() {
+        STRtree tree = buildStrTree();
+        int count = 0;
+        for (Envelope e : envelopes) {
+            count += tree.query(e).size() - 1;
+        }
+        return count / 2;
+    }
+}
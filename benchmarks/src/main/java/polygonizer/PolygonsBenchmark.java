@@ -0,0 +1,69 @@
+package polygonizer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * The whole pipeline, for several buffer combinations, against JTS's own polygonizer as a baseline
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class PolygonsBenchmark {
+    @Param({"street_segments", "streets_sp", "lagoa", "circles5"})
+    String dataset;
+
+    /** streetBuffer:outerBuffer:innerBuffer, in meters */
+    @Param({"0:0:0", "10:0:0", "-10:0:0", "2:0:50", "10:500:0"})
+    String buffers;
+
+    List<LineString> segments;
+    Polygonizer polygonizer;
+    double streetBuffer, outerBuffer, innerBuffer;
+
+    @Setup
+    public void setup() {
+        segments = Datasets.load(dataset);
+        polygonizer = new Polygonizer(segments);
+        String[] values = buffers.split(":");
+        streetBuffer = Datasets.meters(Double.parseDouble(values[0]));
+        outerBuffer = Datasets.meters(Double.parseDouble(values[1]));
+        innerBuffer = Datasets.meters(Double.parseDouble(values[2]));
+    }
+
+    @Benchmark
+    public void polygons(Blackhole blackhole) {
+        for (Polygon polygon : polygonizer.polygons(streetBuffer, outerBuffer, innerBuffer)) {
+            blackhole.consume(polygon);
+        }
+    }
+
+    /**
+     * Baseline: JTS's polygonizer on the same segments. It has no buffering, so it only makes sense against "0:0:0".
+     */
+    @Benchmark
+    public Object jtsPolygonizer() {
+        com.vividsolutions.jts.operation.polygonize.Polygonizer jtsPolygonizer = new com.vividsolutions.jts.operation.polygonize.Polygonizer();
+        jtsPolygonizer.add(segments);
+        return jtsPolygonizer.getPolygons();
+    }
+}
@@ -0,0 +1,84 @@
+package polygonizer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link RangeMultiMap} operations, with as many active ranges as a {@link BoundingBoxMatcher} sweep would have
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeMultiMapBenchmark {
+    private static final int QUERIES = 1000;
+
+    @Param({"1000", "100000", "300000"})
+    int size;
+
+    Envelope1D[] ranges;
+    Envelope1D[] queries;
+    RangeMultiMap<Integer> map;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        ranges = new Envelope1D[size];
+        for (int i=0; i<size; i++) {
+            double min = random.nextDouble() * 10000;
+            ranges[i] = new Envelope1D(min, min + random.nextDouble() * 100);
+        }
+        queries = new Envelope1D[QUERIES];
+        for (int i=0; i<QUERIES; i++) {
+            double min = random.nextDouble() * 10000;
+            queries[i] = new Envelope1D(min, min + random.nextDouble() * 100);
+        }
+        map = new RangeMultiMap<>();
+        for (int i=0; i<size; i++) {
+            map.put(ranges[i], i);
+        }
+    }
+
+    @Benchmark
+    public RangeMultiMap<Integer> putAll() {
+        RangeMultiMap<Integer> map = new RangeMultiMap<>();
+        for (int i=0; i<size; i++) {
+            map.put(ranges[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public RangeMultiMap<Integer> putAllRemoveAll() {
+        RangeMultiMap<Integer> map = putAll();
+        for (int i=0; i<size; i++) {
+            map.remove(ranges[i], i);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public int query() {
+        int count = 0;
+        for (Envelope1D query : queries) {
+            for (Integer value : map.getValues(query)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,51 @@
+package polygonizer;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Input parsing: {@link SegmentReader} against a WKTReader per line
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+    @Param({"street_segments", "streets_sp", "lagoa"})
+    String dataset;
+
+    @Benchmark
+    public void segmentReader(Blackhole blackhole) {
+        for (LineString segment : new SegmentReader(Datasets.file(dataset))) {
+            blackhole.consume(segment);
+        }
+    }
+
+    @Benchmark
+    public void wktReader(Blackhole blackhole) throws Exception {
+        try (BufferedReader in = new BufferedReader(new FileReader(Datasets.file(dataset)))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                blackhole.consume(new WKTReader().read(line));
+            }
+        }
+    }
+}
@@ -1,9 +1,12 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.common.base.Function;
 import com.google.common.base.Stopwatch;
@@ -23,11 +26,17 @@ import com.vividsolutions.jts.index.strtree.STRtree;
  * 
  * The match object is only valid before the next item is fetched from the iterator! 
  * 
+ * The static match() methods do the same sweep without allocating anything per item, pushing the matches into a visitor instead.
+ * 
  * Performance-wise, it is quite fast! 
  * It about as fast as using a {@link STRtree}, but with the advantage that is works on data streams -- If that's what you are trying to do.
  */
 public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Match> {
     Iterable<ObjectWithEnvelope> values;
+    Executor executor;
+    int window;
+    int stripSize;
+    boolean ordered;
 
     public BoundingBoxMatcher(Iterable<T> values, final Function<T, Envelope> extractEnvelope) {
         this.values = Iterables.transform(values, new Function<T, ObjectWithEnvelope>() {
@@ -37,12 +46,37 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
         });
     }
 
+    /**
+     * Multi-core version of the matcher.
+     * 
+     * The input is cut in X-strips of <code>stripSize</code> consecutive values, which are swept concurrently by the executor.
+     * The values from previous strips that still reach a strip are replicated into it, but only to be matched against:
+     * A pair is only reported by the strip of its newest value, so there are no duplicates.
+     * A value is retired by the last strip it reaches.
+     * 
+     * In ordered mode, the output is the same sequence of matches as the serial sweep, and every value is still retired after all its matches 
+     * (Retirements between two consecutive matches may come in a different order).
+     * Otherwise, strips are returned as soon as they are done, and only the set of matches is the same.
+     * 
+     * @param window Maximum number of strips being swept or waiting to be consumed
+     */
+    public BoundingBoxMatcher(Iterable<T> values, Function<T, Envelope> extractEnvelope, Executor executor, int window, int stripSize, boolean ordered) {
+        this(values, extractEnvelope);
+        this.executor = executor;
+        this.window = window;
+        this.stripSize = stripSize;
+        this.ordered = ordered;
+    }
+
     @Override
     public Iterator<Match> iterator() {
+        if (executor != null) {
+            return parallelIterator();
+        }
         return new AbstractIterator<Match>() {
             PeekingIterator<ObjectWithEnvelope> valuesIt = Iterators.peekingIterator(values.iterator());
 
-            RangeMultiMap<ObjectWithEnvelope> activeObjectsByYRange = new RangeMultiMap<>();
+            IntervalIndex<ObjectWithEnvelope> activeObjectsByYRange = new IntervalIndex<>();
 
             PriorityQueue<ObjectWithEnvelope> activeObjectsByXEnd = new PriorityQueue<>(new Comparator<ObjectWithEnvelope>() {
                 public int compare(ObjectWithEnvelope o1, ObjectWithEnvelope o2) {
@@ -59,7 +93,7 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
                 if (addNext != null) {
                     //System.out.println("POP " + addNext);
                     activeObjectsByXEnd.add(addNext);
-                    activeObjectsByYRange.put(addNext.yRange, addNext);
+                    addNext.handle = activeObjectsByYRange.add(addNext.yRange.min, addNext.yRange.max, addNext);
                     maxConcurrent = Math.max(maxConcurrent, activeObjectsByXEnd.size());
                     addNext = null; 
                 }
@@ -67,12 +101,12 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
                 if (!activeObjectsByXEnd.isEmpty() && 
                         (!valuesIt.hasNext() || activeObjectsByXEnd.peek().envelope.getMaxX() < valuesIt.peek().envelope.getMinX())) {
                     ObjectWithEnvelope val = activeObjectsByXEnd.remove();
-                    activeObjectsByYRange.remove(val.yRange, val);
+                    activeObjectsByYRange.remove(val.handle);
                     return new Match(val.value, null); //Inform that we are done with this object
                 }
 
                 if (!valuesIt.hasNext()) {
-                    System.out.println("Peak size=" + maxConcurrent);
+                    Metrics.peak("sweep.active", maxConcurrent);
                     return endOfData();
                 }
 
@@ -88,6 +122,290 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
         };
     }
 
+    private Iterator<Match> parallelIterator() {
+        Iterable<Strip> strips = new Iterable<Strip>() {
+            @Override
+            public Iterator<Strip> iterator() {
+                return new AbstractIterator<Strip>() {
+                    PeekingIterator<ObjectWithEnvelope> valuesIt = Iterators.peekingIterator(values.iterator());
+                    List<ObjectWithEnvelope> carried = new ArrayList<>();
+
+                    @Override
+                    protected Strip computeNext() {
+                        if (!valuesIt.hasNext()) {
+                            return endOfData();
+                        }
+                        Strip strip = new Strip(carried);
+                        while (strip.values.size() < stripSize && valuesIt.hasNext()) {
+                            strip.values.add(valuesIt.next());
+                        }
+                        strip.last = !valuesIt.hasNext();
+
+                        //Values which may still intercept the next strip
+                        carried = new ArrayList<>();
+                        if (!strip.last) {
+                            strip.end = valuesIt.peek().envelope.getMinX();
+                            for (ObjectWithEnvelope value : Iterables.concat(strip.carried, strip.values)) {
+                                if (value.envelope.getMaxX() >= strip.end) {
+                                    carried.add(value);
+                                }
+                            }
+                        }
+                        return strip;
+                    }
+                };
+            }
+        };
+
+        Iterable<List<Match>> stripMatches = ParallelTransform.transform(strips, new Function<Strip, List<Match>>() {
+            @Override
+            public List<Match> apply(Strip strip) {
+                return strip.sweep();
+            }
+        }, executor, window, ordered);
+        return Iterables.concat(stripMatches).iterator();
+    }
+
+    private class Strip {
+        final List<ObjectWithEnvelope> carried;
+        final List<ObjectWithEnvelope> values = new ArrayList<>();
+        double end; //Xmin of the next strip
+        boolean last;
+
+        Strip(List<ObjectWithEnvelope> carried) {
+            this.carried = carried;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Match> sweep() {
+            Sweep sweep = new Sweep();
+            List<Match> ret = new ArrayList<>();
+
+            //Carried values are older than everything in the strip, so they are added first, like in the serial sweep
+            for (ObjectWithEnvelope value : carried) {
+                sweep.add(value.envelope.getMaxX(), value.yRange.min, value.yRange.max, value, 0);
+            }
+            for (ObjectWithEnvelope value : values) {
+                while (sweep.hasExpired(value.envelope.getMinX())) {
+                    retire(sweep.<ObjectWithEnvelope>pop(), ret);
+                }
+                sweep.query(value.yRange.min, value.yRange.max);
+                List<T> matches = new ArrayList<>(sweep.candidateCount);
+                for (int i=0; i<sweep.candidateCount; i++) {
+                    matches.add(((ObjectWithEnvelope)sweep.active.get(sweep.candidates[i])).value);
+                }
+                ret.add(new Match(value.value, matches));
+                sweep.add(value.envelope.getMaxX(), value.yRange.min, value.yRange.max, value, 0);
+            }
+            while (sweep.heapSize > 0) {
+                retire(sweep.<ObjectWithEnvelope>pop(), ret);
+            }
+            Metrics.peak("sweep.active", sweep.peak);
+            return ret;
+        }
+
+        private void retire(ObjectWithEnvelope value, List<Match> ret) {
+            if (last || value.envelope.getMaxX() < end) { //Otherwise, it is carried to the next strip
+                ret.add(new Match(value.value, null));
+            }
+        }
+    }
+
+    /**
+     * Push-style version of the matcher, see {@link BoundingBoxMatcher#match(Iterable, Function, MatchVisitor)}
+     */
+    public interface MatchVisitor<T> {
+        /**
+         * A new value, and the previous values it intercepts.
+         * The candidates object is reused, so it is only valid during this call.
+         */
+        void matched(T value, Candidates<T> candidates);
+
+        /**
+         * No more values will intercept this one
+         */
+        void retired(T value);
+    }
+
+    /**
+     * Same as {@link MatchVisitor}, for values identified by their indexes in the input arrays
+     */
+    public interface IndexMatchVisitor {
+        /**
+         * A new value, and the previous values it intercepts, in <code>candidates[0, count)</code>.
+         * The array is reused, so it is only valid during this call.
+         */
+        void matched(int index, int[] candidates, int count);
+
+        void retired(int index);
+    }
+
+    /**
+     * Previous values intercepted by a new one, ordered by Ymin
+     */
+    public static class Candidates<T> {
+        private final Sweep sweep;
+
+        private Candidates(Sweep sweep) {
+            this.sweep = sweep;
+        }
+
+        public int size() {
+            return sweep.candidateCount;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get(int i) {
+            return (T)sweep.active.get(sweep.candidates[i]);
+        }
+    }
+
+    /**
+     * Same matching as the iterator, but the matches are pushed into the visitor instead of allocating a Match for each one.
+     *
+     * @param values Ordered by Xmin
+     */
+    public static <T> void match(Iterable<T> values, Function<T, Envelope> extractEnvelope, MatchVisitor<T> visitor) {
+        Sweep sweep = new Sweep();
+        Candidates<T> candidates = new Candidates<>(sweep);
+        for (T value : values) {
+            Envelope envelope = extractEnvelope.apply(value);
+            while (sweep.hasExpired(envelope.getMinX())) {
+                visitor.retired(sweep.<T>pop());
+            }
+            sweep.query(envelope.getMinY(), envelope.getMaxY());
+            visitor.matched(value, candidates);
+            sweep.add(envelope.getMaxX(), envelope.getMinY(), envelope.getMaxY(), value, 0);
+        }
+        while (sweep.heapSize > 0) {
+            visitor.retired(sweep.<T>pop());
+        }
+        Metrics.peak("sweep.active", sweep.peak);
+    }
+
+    /**
+     * Same as {@link #match(Iterable, Function, MatchVisitor)}, with the envelopes in primitive arrays
+     *
+     * @param minX Must be sorted
+     */
+    public static void match(double[] minX, double[] maxX, double[] minY, double[] maxY, IndexMatchVisitor visitor) {
+        Sweep sweep = new Sweep();
+        for (int i=0; i<minX.length; i++) {
+            while (sweep.hasExpired(minX[i])) {
+                sweep.pop();
+                visitor.retired(sweep.poppedId);
+            }
+            sweep.query(minY[i], maxY[i]);
+            for (int j=0; j<sweep.candidateCount; j++) {
+                sweep.candidates[j] = sweep.ids[sweep.candidates[j]];
+            }
+            visitor.matched(i, sweep.candidates, sweep.candidateCount);
+            sweep.add(maxX[i], minY[i], maxY[i], null, i);
+        }
+        while (sweep.heapSize > 0) {
+            sweep.pop();
+            visitor.retired(sweep.poppedId);
+        }
+        Metrics.peak("sweep.active", sweep.peak);
+    }
+
+    /**
+     * State of the push-style sweep: The active objects indexed by Y range, and a binary heap of their handles ordered by Xmax.
+     * Each object can carry a value, an int id, or both.
+     */
+    private static class Sweep implements IntervalIndex.HandleVisitor {
+        final IntervalIndex<Object> active = new IntervalIndex<>();
+        int[] ids = new int[16];
+
+        int[] heap = new int[16];
+        double[] heapKeys = new double[16];
+        int heapSize = 0;
+        int peak = 0;
+
+        int[] candidates = new int[16];
+        int candidateCount;
+
+        int poppedId;
+
+        boolean hasExpired(double minX) {
+            return heapSize > 0 && heapKeys[0] < minX;
+        }
+
+        void query(double minY, double maxY) {
+            candidateCount = 0;
+            active.queryHandles(minY, maxY, this);
+        }
+
+        @Override
+        public void visit(int handle) {
+            if (candidateCount == candidates.length) {
+                candidates = Arrays.copyOf(candidates, 2 * candidateCount);
+            }
+            candidates[candidateCount++] = handle;
+        }
+
+        void add(double maxX, double minY, double maxY, Object value, int id) {
+            int handle = active.add(minY, maxY, value);
+            if (handle >= ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(2 * ids.length, handle + 1));
+            }
+            ids[handle] = id;
+
+            if (heapSize == heap.length) {
+                heap = Arrays.copyOf(heap, 2 * heapSize);
+                heapKeys = Arrays.copyOf(heapKeys, 2 * heapSize);
+            }
+            int pos = heapSize++;
+            while (pos > 0) {
+                int parent = (pos - 1) >>> 1;
+                if (heapKeys[parent] <= maxX) {
+                    break;
+                }
+                heap[pos] = heap[parent];
+                heapKeys[pos] = heapKeys[parent];
+                pos = parent;
+            }
+            heap[pos] = handle;
+            heapKeys[pos] = maxX;
+            peak = Math.max(peak, heapSize);
+        }
+
+        /**
+         * Removes the object with the smallest Xmax
+         *
+         * @return Its value. Its id is in poppedId.
+         */
+        @SuppressWarnings("unchecked")
+        <T> T pop() {
+            int handle = heap[0];
+            T value = (T)active.get(handle);
+            poppedId = ids[handle];
+            active.remove(handle);
+
+            int last = heap[--heapSize];
+            double lastKey = heapKeys[heapSize];
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                    child++;
+                }
+                if (lastKey <= heapKeys[child]) {
+                    break;
+                }
+                heap[pos] = heap[child];
+                heapKeys[pos] = heapKeys[child];
+                pos = child;
+            }
+            heap[pos] = last;
+            heapKeys[pos] = lastKey;
+            return value;
+        }
+    }
+
     public class Match {
         public final T value;
         public final Iterable<T> matches;
@@ -101,6 +419,7 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
         private final T value;
         private final Envelope envelope;
         private final Envelope1D yRange;
+        private int handle; //Handle in activeObjectsByYRange
         public ObjectWithEnvelope(T value, Envelope envelope) {
             this.value = value;
             this.envelope = envelope;
@@ -158,6 +477,49 @@ public class BoundingBoxMatcher<T> implements Iterable<BoundingBoxMatcher<T>.Mat
 
 
 
+        timer = Stopwatch.createStarted();
+        System.out.println("Callback Search: START");
+
+        final double[] minX = new double[envelopes.size()], maxX = new double[envelopes.size()];
+        final double[] minY = new double[envelopes.size()], maxY = new double[envelopes.size()];
+        for (int i=0; i<envelopes.size(); i++) {
+            minX[i] = envelopes.get(i).getMinX();
+            maxX[i] = envelopes.get(i).getMaxX();
+            minY[i] = envelopes.get(i).getMinY();
+            maxY[i] = envelopes.get(i).getMaxY();
+        }
+        final int[] callbackCount = new int[1];
+        match(minX, maxX, minY, maxY, new IndexMatchVisitor() {
+            @Override
+            public void matched(int index, int[] candidates, int count) {
+                callbackCount[0] += count;
+            }
+            @Override
+            public void retired(int index) {
+            }
+        });
+        System.out.println("Callback Search: COMPLETE: " + callbackCount[0] + " - " + timer);
+
+
+
+        timer = Stopwatch.createStarted();
+        System.out.println("Parallel Search: START");
+
+        count = 0;
+        BoundingBoxMatcher<Envelope> parallelMatcher = new BoundingBoxMatcher<>(envelopes, new Function<Envelope, Envelope>() {
+            public Envelope apply(Envelope a) {
+                return a;
+            }
+        }, ForkJoinPool.commonPool(), 2 * ForkJoinPool.commonPool().getParallelism(), 4096, false);
+        for (BoundingBoxMatcher<Envelope>.Match m : parallelMatcher) {
+            if (m.matches != null) {
+                count += Iterables.size(m.matches);
+            }
+        }
+        System.out.println("Parallel Search: COMPLETE: " + count + " - " + timer);
+
+
+
         Stopwatch timerStr = Stopwatch.createStarted();
         timer = Stopwatch.createStarted();
         System.out.println("Building STR-Tree: START");
@@ -0,0 +1,94 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import com.vividsolutions.jts.algorithm.RayCrossingCounter;
+import com.vividsolutions.jts.algorithm.locate.IndexedPointInAreaLocator;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Location;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
+
+/**
+ * Answers "Is this external cycle inside that shell?" for {@link Polygonizer#fix_topology()}, without a full relate for every candidate.
+ *
+ * In a noded planar graph, an external cycle and a face of another connected component share no vertexes and never cross,
+ * so the external cycle is either completely inside or completely outside the face: Locating any single vertex is enough.
+ * Only when that vertex lies on the shell boundary (Same component, or non-noded input) the exact prepared-geometry test is used.
+ *
+ * Large shells are indexed the first time they are tested, and should be evicted when the sweep retires them.
+ */
+public class ContainmentCache {
+    //Rings smaller than this are cheaper to scan than to index
+    private static final int INDEX_THRESHOLD = 32;
+
+    private final Map<Polygonizer.Cycle, Prepared> prepared = new IdentityHashMap<>();
+    private long tests;
+    private long exactTests;
+
+    /**
+     * Same as <code>container.shell().contains(contained.shell().getBoundary())</code>,
+     * or <code>container.shell().contains(contained.lines.get(0))</code> if the contained cycle has an empty shell
+     */
+    public boolean contains(Polygonizer.Cycle container, Polygonizer.Cycle contained) {
+        Geometry target = contained.points == 0 ? contained.lines.get(0) : contained.shell().getExteriorRing();
+        Coordinate vertex = target.getCoordinate();
+        tests++;
+
+        Coordinate[] ring = container.shell().getExteriorRing().getCoordinates();
+        if (ring.length < INDEX_THRESHOLD) {
+            int location = RayCrossingCounter.locatePointInRing(vertex, ring);
+            if (location != Location.BOUNDARY) {
+                return location == Location.INTERIOR;
+            }
+            exactTests++;
+            return container.shell().contains(target); //Can't decide from a single vertex
+        }
+
+        Prepared prep = prepared.get(container);
+        if (prep == null) {
+            prep = new Prepared();
+            prep.locator = new IndexedPointInAreaLocator(container.shell());
+            prepared.put(container, prep);
+        }
+        int location = prep.locator.locate(vertex);
+        if (location != Location.BOUNDARY) {
+            return location == Location.INTERIOR;
+        }
+        exactTests++;
+        if (prep.geometry == null) { //Can't decide from a single vertex
+            prep.geometry = PreparedGeometryFactory.prepare(container.shell());
+        }
+        return prep.geometry.contains(target);
+    }
+
+    /**
+     * Forgets the prepared version of the cycle, which won't be tested again
+     */
+    public void evict(Polygonizer.Cycle cycle) {
+        prepared.remove(cycle);
+    }
+
+    public int size() {
+        return prepared.size();
+    }
+
+    /**
+     * @return Number of containment tests so far
+     */
+    public long tests() {
+        return tests;
+    }
+
+    /**
+     * @return Number of tests which needed the exact prepared-geometry test
+     */
+    public long exactTests() {
+        return exactTests;
+    }
+
+    private static class Prepared {
+        IndexedPointInAreaLocator locator;
+        PreparedGeometry geometry; //Only created if needed
+    }
+}
@@ -0,0 +1,269 @@
+import java.util.Arrays;
+import java.util.List;
+
+import com.vividsolutions.jts.algorithm.CGAlgorithms;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Finds the face containing a point, e.g. the block of an address, in O(log n) and without allocating anything.
+ *
+ * Every segment of the rings of the faces is stored with the face right above it -- Since the faces tile the plane,
+ * the face containing a point is the one above the first segment below it.
+ * The segments are kept in a segment tree over the slabs between consecutive X coordinates:
+ * Every node has the segments that cross its whole range, which don't cross each other, so they are sorted by Y.
+ * With fractional cascading from the root down, the list of a node also has every 4th segment of its parent's list,
+ * which cross the node's range too, each pointing back to its position in the parent.
+ * A query binary-searches the list of its slab's leaf, and then finds its position in every parent within 3 steps, in O(log n).
+ * The lists take O(n log n), at most twice the segments of the nodes.
+ *
+ * It is immutable, so any number of threads may use it at the same time.
+ */
+public class FaceLocator {
+    private static final int OUTSIDE = -1;
+    private static final int SAMPLE = 4; //Every 4th segment of a list is cascaded into the children
+
+    private final Polygonizer.Cycle[] faces;
+    private final Polygonizer.Cycle outermost;
+    private final double[] slabX; //Sorted distinct X of the segment endpoints
+    private final int leaves; //Power of 2 >= number of slabs
+    private final int[] nodeOffset; //List of node i is nodeSegments[nodeOffset[i], nodeOffset[i+1])
+    private final int[] nodeSegments;
+    private final int[] parentIndex; //Position in the parent's list of the first cascaded segment at or after each one
+    private final double[] x1, y1, x2, y2; //Segments, with x1 < x2
+    private final double[] slope;
+    private final int[] face; //Face above each segment, or OUTSIDE
+
+    /**
+     * @param cycles Output of {@link Polygonizer#fix_topology()}: The faces with their holes, and the outermost shell
+     */
+    public FaceLocator(List<Polygonizer.Cycle> cycles) {
+        this.faces = cycles.toArray(new Polygonizer.Cycle[cycles.size()]);
+        Polygonizer.Cycle outermost = null;
+
+        //Segments of every ring, with the face above them
+        Segments segments = new Segments();
+        for (int f=0; f<faces.length; f++) {
+            Polygonizer.Cycle cycle = faces[f];
+            if (cycle.external) {
+                continue;
+            }
+            int above = f;
+            if (cycle.isOutermost()) {
+                outermost = cycle;
+                above = OUTSIDE;
+            } else {
+                segments.addRing(cycle.coordinates(), true, above);
+            }
+            for (Polygon hole : cycle.holes) {
+                segments.addRing(hole.getExteriorRing().getCoordinates(), false, above);
+            }
+        }
+        this.outermost = outermost;
+        this.x1 = Arrays.copyOf(segments.x1, segments.size);
+        this.y1 = Arrays.copyOf(segments.y1, segments.size);
+        this.x2 = Arrays.copyOf(segments.x2, segments.size);
+        this.y2 = Arrays.copyOf(segments.y2, segments.size);
+        this.face = Arrays.copyOf(segments.face, segments.size);
+        int count = segments.size;
+        this.slope = new double[count];
+        for (int i=0; i<count; i++) {
+            slope[i] = (y2[i] - y1[i]) / (x2[i] - x1[i]);
+        }
+
+        //Slabs
+        double[] xs = new double[2 * count];
+        for (int i=0; i<count; i++) {
+            xs[2*i] = x1[i];
+            xs[2*i+1] = x2[i];
+        }
+        Arrays.sort(xs);
+        int distinct = 0;
+        for (int i=0; i<xs.length; i++) {
+            if (distinct == 0 || xs[i] != xs[distinct-1]) {
+                xs[distinct++] = xs[i];
+            }
+        }
+        this.slabX = Arrays.copyOf(xs, distinct);
+        int slabs = Math.max(1, distinct - 1);
+        this.leaves = Integer.highestOneBit(slabs) == slabs ? slabs : 2 * Integer.highestOneBit(slabs);
+
+        //Each segment goes into the O(log n) nodes covering its slabs -- Counted first, then filled
+        int[] lo = new int[count], hi = new int[count];
+        int[] ownOffset = new int[2 * leaves + 1];
+        for (int i=0; i<count; i++) {
+            lo[i] = Arrays.binarySearch(slabX, x1[i]) + leaves;
+            hi[i] = Arrays.binarySearch(slabX, x2[i]) + leaves;
+            for (int l=lo[i], h=hi[i]; l<h; l>>=1, h>>=1) {
+                if ((l & 1) == 1) ownOffset[l++ + 1]++;
+                if ((h & 1) == 1) ownOffset[--h + 1]++;
+            }
+        }
+        for (int n=0; n<2*leaves; n++) {
+            ownOffset[n+1] += ownOffset[n];
+        }
+        int[] own = new int[ownOffset[2 * leaves]];
+        int[] fill = Arrays.copyOf(ownOffset, 2 * leaves);
+        for (int i=0; i<count; i++) {
+            for (int l=lo[i], h=hi[i]; l<h; l>>=1, h>>=1) {
+                if ((l & 1) == 1) own[fill[l++]++] = i;
+                if ((h & 1) == 1) own[fill[--h]++] = i;
+            }
+        }
+
+        //From the root down, sort the segments of every node by Y in the middle of its range, and merge them with the ones cascaded from the parent.
+        //A parent's list holds its own segments plus 1/4 of its parent's, so all the lists add up to less than twice the own segments.
+        double[] keys = new double[count];
+        int[] list = new int[2 * own.length];
+        int[] up = new int[list.length];
+        int size = 0;
+        this.nodeOffset = new int[2 * leaves + 1];
+        for (int n=1; n<2*leaves; n++) {
+            nodeOffset[n] = size;
+            int first = n, last = n + 1; //Leaves under the node
+            while (first < leaves) {
+                first <<= 1;
+                last <<= 1;
+            }
+            if (slabX.length < 2 || first - leaves >= slabs) {
+                continue; //Past the last slab, so never queried
+            }
+            double x = (slabX[first - leaves] + slabX[Math.min(last - leaves, slabs)]) / 2;
+            int from = ownOffset[n], to = ownOffset[n+1];
+            for (int i=from; i<to; i++) {
+                keys[own[i]] = yAt(own[i], x);
+            }
+            HalfEdgeGraph.sort(own, from, to, keys);
+
+            int parent = n >> 1;
+            int next = n == 1 ? 0 : nodeOffset[parent] + SAMPLE - 1, parentEnd = n == 1 ? 0 : nodeOffset[parent+1];
+            for (int i=from; i<to || next<parentEnd; size++) {
+                if (next >= parentEnd || (i < to && keys[own[i]] <= yAt(list[next], x))) {
+                    list[size] = own[i++];
+                    up[size] = -1;
+                } else {
+                    list[size] = list[next];
+                    up[size] = next;
+                    next += SAMPLE;
+                }
+            }
+            for (int i=size-1, cascaded=parentEnd; i>=nodeOffset[n]; i--) {
+                if (up[i] < 0) {
+                    up[i] = cascaded;
+                } else {
+                    cascaded = up[i];
+                }
+            }
+        }
+        nodeOffset[2 * leaves] = size;
+        this.nodeSegments = Arrays.copyOf(list, size);
+        this.parentIndex = Arrays.copyOf(up, size);
+    }
+
+    /**
+     * @return The face containing the point, the outermost shell if it is outside all of them,
+     *         or either face if it lies on the boundary between them
+     */
+    public Polygonizer.Cycle locate(double x, double y) {
+        int f = locateIndex(x, y);
+        return f == OUTSIDE ? outermost : faces[f];
+    }
+
+    /**
+     * @return Position in the cycles of the face containing the point, or -1 if it is outside all of them
+     */
+    public int locateIndex(double x, double y) {
+        if (slabX.length < 2 || x < slabX[0] || x > slabX[slabX.length-1]) {
+            return OUTSIDE;
+        }
+        int slab = Arrays.binarySearch(slabX, x);
+        slab = slab >= 0 ? Math.min(slab, slabX.length - 2) : -slab - 2;
+
+        //First segment above the point in the leaf
+        int n = slab + leaves;
+        int lo = nodeOffset[n], hi = nodeOffset[n+1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (yAt(nodeSegments[mid], x) <= y) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+
+        //Highest segment below the point, among the nodes from the leaf to the root
+        int best = -1;
+        double bestY = Double.NEGATIVE_INFINITY;
+        while (true) {
+            if (lo > nodeOffset[n]) {
+                int segment = nodeSegments[lo-1];
+                double segmentY = yAt(segment, x);
+                if (segmentY > bestY || (segmentY == bestY && slope[segment] > slope[best])) { //Right of a vertex, the steepest segment is the one below the point
+                    bestY = segmentY;
+                    best = segment;
+                }
+            }
+            if (n == 1) {
+                break;
+            }
+            //The next cascaded segment is above the point, and the one before it is below, so at most 3 are left in between
+            int parent = n >> 1;
+            int above = lo < nodeOffset[n+1] ? parentIndex[lo] : nodeOffset[parent+1];
+            while (above > nodeOffset[parent] && yAt(nodeSegments[above-1], x) > y) {
+                above--;
+            }
+            lo = above;
+            n = parent;
+        }
+        return best < 0 ? OUTSIDE : face[best];
+    }
+
+    private double yAt(int segment, double x) {
+        return y1[segment] + (x - x1[segment]) * slope[segment];
+    }
+
+    /**
+     * Growable segment arrays
+     */
+    private static class Segments {
+        double[] x1 = new double[1024], y1 = new double[1024], x2 = new double[1024], y2 = new double[1024];
+        int[] face = new int[1024];
+        int size;
+
+        /**
+         * Adds the segments of a ring of a face, which lies inside the ring if it is a shell, or outside if it is a hole
+         */
+        void addRing(Coordinate[] ring, boolean shell, int f) {
+            if (ring.length < 4) {
+                return;
+            }
+            //The face is left of every segment if it is inside a counter-clockwise ring, or outside a clockwise one
+            boolean faceOnLeft = CGAlgorithms.isCCW(ring) == shell;
+            for (int i=1; i<ring.length; i++) {
+                Coordinate p = ring[i-1], q = ring[i];
+                if (p.x == q.x) {
+                    continue; //Vertical segments are never the first one below a point
+                }
+                //Left of a segment going right is above it
+                if ((p.x < q.x) == faceOnLeft) {
+                    add(Math.min(p.x, q.x), p.x < q.x ? p.y : q.y, Math.max(p.x, q.x), p.x < q.x ? q.y : p.y, f);
+                }
+            }
+        }
+
+        void add(double ax, double ay, double bx, double by, int f) {
+            if (size == face.length) {
+                x1 = Arrays.copyOf(x1, 2 * size);
+                y1 = Arrays.copyOf(y1, 2 * size);
+                x2 = Arrays.copyOf(x2, 2 * size);
+                y2 = Arrays.copyOf(y2, 2 * size);
+                face = Arrays.copyOf(face, 2 * size);
+            }
+            x1[size] = ax;
+            y1[size] = ay;
+            x2[size] = bx;
+            y2[size] = by;
+            face[size++] = f;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Immutable snapshot of the faces of a graph, with holes and dead ends already assigned by {@link Polygonizer#fix_topology()}.
+ *
+ * The topology is only computed once, and then buffered with as many parameters as needed.
+ * It is thread-safe: Any number of threads may ask for polygons at the same time.
+ * The results of the most recently used buffer distances are cached, and points can be located with {@link #locator()}.
+ */
+public class Faces {
+    private static final int DEFAULT_CACHE_SIZE = 16;
+
+    private final List<Polygonizer.Cycle> cycles;
+    private final LoadingCache<Buffers, List<Polygon>> cache;
+    private FaceLocator locator;
+
+    /**
+     * @param cycles Output of {@link Polygonizer#fix_topology()}, which is copied
+     */
+    public Faces(Iterable<Polygonizer.Cycle> cycles) {
+        this(cycles, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param cacheSize Maximum number of buffer distances whose polygons are kept
+     */
+    public Faces(Iterable<Polygonizer.Cycle> cycles, int cacheSize) {
+        List<Polygonizer.Cycle> frozen = new ArrayList<>();
+        for (Polygonizer.Cycle cycle : cycles) {
+            frozen.add(cycle.freeze());
+        }
+        this.cycles = Collections.unmodifiableList(frozen);
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .build(new CacheLoader<Buffers, List<Polygon>>() {
+                    @Override
+                    public List<Polygon> load(Buffers key) {
+                        return Collections.unmodifiableList(Lists.newArrayList(polygons(key.streetBuffer, key.outerBuffer, key.innerBuffer)));
+                    }
+                });
+    }
+
+    public List<Polygonizer.Cycle> cycles() {
+        return cycles;
+    }
+
+    /**
+     * Buffers the faces lazily, without caching
+     */
+    public Iterable<Polygon> polygons(double streetBuffer, double outerBuffer, double innerBuffer) {
+        return Polygonizer.bufferedPolygons(cycles, streetBuffer, outerBuffer, innerBuffer);
+    }
+
+    /**
+     * Buffered polygons, from the cache if available. Concurrent requests with the same distances are only computed once.
+     * The polygons are shared, and must not be modified.
+     */
+    public List<Polygon> get(double streetBuffer, double outerBuffer, double innerBuffer) {
+        return cache.getUnchecked(new Buffers(streetBuffer, outerBuffer, innerBuffer));
+    }
+
+    /**
+     * Point-location index over the faces, built on first use
+     */
+    public synchronized FaceLocator locator() {
+        if (locator == null) {
+            locator = new FaceLocator(cycles);
+        }
+        return locator;
+    }
+
+    public void clearCache() {
+        cache.invalidateAll();
+    }
+
+    private static class Buffers {
+        final double streetBuffer, outerBuffer, innerBuffer;
+
+        Buffers(double streetBuffer, double outerBuffer, double innerBuffer) {
+            this.streetBuffer = streetBuffer;
+            this.outerBuffer = outerBuffer;
+            this.innerBuffer = innerBuffer;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Double.hashCode(streetBuffer) * 31 + Double.hashCode(outerBuffer)) * 31 + Double.hashCode(innerBuffer);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Buffers)) {
+                return false;
+            }
+            Buffers o = (Buffers)obj;
+            return Double.compare(streetBuffer, o.streetBuffer) == 0
+                    && Double.compare(outerBuffer, o.outerBuffer) == 0
+                    && Double.compare(innerBuffer, o.innerBuffer) == 0;
+        }
+    }
+}
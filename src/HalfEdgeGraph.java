@@ -0,0 +1,398 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Compact version of the planar graph used by {@link Polygonizer}.
+ *
+ * Instead of a Vertex object per node and two Edge objects per segment, everything is stored in parallel primitive arrays:
+ * - Half-edges 2*i and 2*i+1 are the two directions of segments[i], so the twin of a half-edge is always <code>e ^ 1</code>
+ * - The half-edges leaving each vertex are stored contiguously (CSR-style) in <code>star</code>, sorted by angle
+ * - <code>next</code> is precomputed, so walking a face is just following indexes
+ *
+ * The traversal produces exactly the same cycles as the object graph, in the same order.
+ */
+class HalfEdgeGraph implements Iterable<Polygonizer.Cycle> {
+    final LineString[] segments;
+    final double[] area; //Of each segment, see Polygonizer.pathArea
+
+    final double[] vertexX;
+    final double[] vertexY;
+    final int[] starOffset;
+    final int[] star;
+
+    final int[] origin;
+    final int[] next;
+    final int[] order;
+
+    final BitSet visited;
+    private int[] walk = new int[16];
+
+    public HalfEdgeGraph(Iterable<LineString> segments) {
+        this.segments = Iterables.toArray(segments, LineString.class);
+        int halfEdgeCount = 2 * this.segments.length;
+        this.area = new double[this.segments.length];
+        for (int i=0; i<this.segments.length; i++) {
+            area[i] = Polygonizer.pathArea(this.segments[i]);
+        }
+
+        //Assign vertex indexes
+        this.origin = new int[halfEdgeCount];
+        VertexIndex vertexIndex = new VertexIndex(this.segments.length);
+        for (int i=0; i<this.segments.length; i++) {
+            CoordinateSequence points = this.segments[i].getCoordinateSequence();
+            origin[2*i] = vertexIndex.indexOf(points.getX(0), points.getY(0));
+            origin[2*i+1] = vertexIndex.indexOf(points.getX(points.size()-1), points.getY(points.size()-1));
+        }
+        int vertexCount = vertexIndex.size;
+        this.vertexX = Arrays.copyOf(vertexIndex.x, vertexCount);
+        this.vertexY = Arrays.copyOf(vertexIndex.y, vertexCount);
+
+        //Group half-edges by origin vertex, keeping the insertion order
+        this.starOffset = new int[vertexCount + 1];
+        for (int e=0; e<halfEdgeCount; e++) {
+            starOffset[origin[e] + 1]++;
+        }
+        for (int v=0; v<vertexCount; v++) {
+            starOffset[v+1] += starOffset[v];
+        }
+        this.star = new int[halfEdgeCount];
+        int[] fill = new int[vertexCount];
+        for (int e=0; e<halfEdgeCount; e++) {
+            int v = origin[e];
+            star[starOffset[v] + fill[v]++] = e;
+        }
+
+        //Sort edges of every vertex
+        double[] angle = new double[halfEdgeCount];
+        for (int e=0; e<halfEdgeCount; e++) {
+            angle[e] = angle(e);
+        }
+        for (int v=0; v<vertexCount; v++) {
+            insertionSort(star, starOffset[v], starOffset[v+1], angle);
+        }
+
+        //Precompute the next half-edge of every face:
+        //Arriving at a vertex through twin(e), we leave through the edge following e in the star
+        this.next = new int[halfEdgeCount];
+        for (int v=0; v<vertexCount; v++) {
+            int start = starOffset[v];
+            int degree = starOffset[v+1] - start;
+            for (int i=0; i<degree; i++) {
+                next[star[start + i] ^ 1] = star[start + (i+1) % degree];
+            }
+        }
+
+        //Sort half-edges by X
+        double[] minX = new double[halfEdgeCount];
+        this.order = new int[halfEdgeCount];
+        for (int e=0; e<halfEdgeCount; e++) {
+            minX[e] = this.segments[e >> 1].getEnvelopeInternal().getMinX();
+            order[e] = e;
+        }
+        sort(order, 0, halfEdgeCount, minX);
+
+        this.visited = new BitSet(halfEdgeCount);
+    }
+
+    public int vertexCount() {
+        return vertexX.length;
+    }
+
+    public int halfEdgeCount() {
+        return origin.length;
+    }
+
+    private int pointCount(int e) {
+        return segments[e >> 1].getNumPoints();
+    }
+
+    private double angle(int e) {
+        CoordinateSequence points = segments[e >> 1].getCoordinateSequence();
+        int i1 = (e & 1) == 0 ? 0 : points.size() - 1;
+        int i2 = (e & 1) == 0 ? 1 : points.size() - 2;
+        return Math.atan2(points.getY(i2) - points.getY(i1), points.getX(i2) - points.getX(i1));
+    }
+
+    private Polygonizer.Cycle visit(int firstEdge) {
+        int length = 0;
+        int currentEdge = firstEdge;
+
+        do {
+            currentEdge = next[currentEdge];
+            if (visited.get(currentEdge)) {
+                throw new IllegalStateException("Edge visited twice?! " + currentEdge);
+            }
+            visited.set(currentEdge);
+
+            if (length == walk.length) {
+                walk = Arrays.copyOf(walk, 2 * length);
+            }
+            walk[length++] = currentEdge;
+        } while (currentEdge != firstEdge);
+
+        return createCycle(walk, length);
+    }
+
+    /**
+     * Splits the edges of a face, listed in traversal order, into its ring and its dead-ends.
+     *
+     * The ring is a deque stored in-place at walk[head, tail): It grows by at most one edge per edge read, so it never overwrites unread edges.
+     */
+    private Polygonizer.Cycle createCycle(int[] walk, int length) {
+        int head = 0, tail = 0;
+        List<LineString> deadEnds = new ArrayList<>();
+
+        for (int i=0; i<length; i++) {
+            int currentEdge = walk[i];
+            if (tail > head && walk[tail-1] == (currentEdge ^ 1)) { //Going back along the same segment
+                deadEnds.add(segments[walk[--tail] >> 1]);
+            } else {
+                walk[tail++] = currentEdge;
+            }
+        }
+
+        while (tail - head >= 2 && walk[head] == (walk[tail-1] ^ 1)) {
+            deadEnds.add(segments[walk[head++] >> 1]);
+            tail--;
+        }
+
+        //Measures of the shell, from the ones of its edges
+        Envelope envelope = new Envelope();
+        double ringArea = 0;
+        int points = tail > head ? 1 : 0;
+        int first = tail > head ? origin[walk[head]] : -1;
+        for (int i=head; i<tail; i++) {
+            int edge = walk[i];
+            int v1 = origin[edge], v2 = origin[edge ^ 1];
+            ringArea += ((edge & 1) == 0 ? area[edge >> 1] : -area[edge >> 1])
+                    + Polygonizer.ringArea(vertexX[first], vertexY[first], vertexX[v1], vertexY[v1], vertexX[v2], vertexY[v2]);
+            envelope.expandToInclude(segments[edge >> 1].getEnvelopeInternal());
+            points += pointCount(edge) - 1;
+        }
+
+        LineString[] shellSegments = new LineString[tail - head];
+        boolean[] shellReversed = new boolean[tail - head];
+        for (int i=head; i<tail; i++) {
+            shellSegments[i - head] = segments[walk[i] >> 1];
+            shellReversed[i - head] = (walk[i] & 1) == 1;
+        }
+        return new Polygonizer.Cycle(new Polygonizer.Ring(shellSegments, shellReversed), -ringArea / 2, envelope, points, deadEnds);
+    }
+
+    ParallelFaceTraversal parallelTraversal() {
+        final int[] rank = new int[order.length];
+        for (int i=0; i<order.length; i++) {
+            rank[order[i]] = i;
+        }
+        return new ParallelFaceTraversal() {
+            @Override
+            protected int size() {
+                return order.length;
+            }
+            @Override
+            protected int edgeAt(int pos) {
+                return order[pos];
+            }
+            @Override
+            protected int rank(int edge) {
+                return rank[edge];
+            }
+            @Override
+            protected int next(int edge) {
+                return next[edge];
+            }
+            @Override
+            protected Polygonizer.Cycle createCycle(int[] walk, int length) {
+                return HalfEdgeGraph.this.createCycle(walk, length);
+            }
+        };
+    }
+
+    @Override
+    public Iterator<Polygonizer.Cycle> iterator() {
+        //Clear visited flags
+        visited.clear();
+
+        return new AbstractIterator<Polygonizer.Cycle>() {
+            int pos = 0;
+
+            @Override
+            protected Polygonizer.Cycle computeNext() {
+                while (pos < order.length) {
+                    int edge = order[pos++];
+                    if (!visited.get(edge)) {
+                        return visit(edge);
+                    }
+                }
+                return endOfData();
+            }
+        };
+    }
+
+
+    /**
+     * Sorts <code>values[from, to)</code> by key, then by value, for the small arrays used for vertex stars
+     */
+    private static void insertionSort(int[] values, int from, int to, double[] keys) {
+        for (int i=from+1; i<to; i++) {
+            int value = values[i];
+            double key = keys[value];
+            int j = i-1;
+            while (j >= from && (keys[values[j]] > key || (keys[values[j]] == key && values[j] > value))) {
+                values[j+1] = values[j];
+                j--;
+            }
+            values[j+1] = value;
+        }
+    }
+
+    /**
+     * Sorts <code>values[from, to)</code> by key, then by value -- Which is the same as a stable sort when the values start in increasing order.
+     */
+    static void sort(int[] values, int from, int to, double[] keys) {
+        while (to - from > 16) {
+            int pivot = values[(from + to) >>> 1];
+            double pivotKey = keys[pivot];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (compare(values[i], pivot, keys, pivotKey) < 0) i++;
+                while (compare(values[j], pivot, keys, pivotKey) > 0) j--;
+                if (i <= j) {
+                    int tmp = values[i];
+                    values[i++] = values[j];
+                    values[j--] = tmp;
+                }
+            }
+            //Recurse into the smaller half, loop on the larger one
+            if (j - from < to - i) {
+                sort(values, from, j+1, keys);
+                from = i;
+            } else {
+                sort(values, i, to, keys);
+                to = j+1;
+            }
+        }
+        insertionSort(values, from, to, keys);
+    }
+
+    private static int compare(int value, int pivot, double[] keys, double pivotKey) {
+        int cmp = Double.compare(keys[value], pivotKey);
+        return cmp != 0 ? cmp : Integer.compare(value, pivot);
+    }
+
+
+    /**
+     * Open-addressing map from coordinates to vertex indexes, using the same equality as {@link Coordinate#equals(Object)} (X and Y only)
+     */
+    private static class VertexIndex {
+        double[] x, y;
+        int[] table;
+        int size;
+
+        VertexIndex(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2) * 2;
+            this.table = new int[capacity];
+            Arrays.fill(table, -1);
+            this.x = new double[Math.max(4, expectedSize)];
+            this.y = new double[Math.max(4, expectedSize)];
+        }
+
+        int indexOf(double cx, double cy) {
+            int mask = table.length - 1;
+            int slot = hash(cx, cy) & mask;
+            while (true) {
+                int v = table[slot];
+                if (v < 0) {
+                    break;
+                }
+                if (x[v] == cx && y[v] == cy) {
+                    return v;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == x.length) {
+                x = Arrays.copyOf(x, 2 * size);
+                y = Arrays.copyOf(y, 2 * size);
+            }
+            x[size] = cx;
+            y[size] = cy;
+            table[slot] = size;
+            if (++size * 2 > table.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            Arrays.fill(table, -1);
+            int mask = table.length - 1;
+            for (int v=0; v<size; v++) {
+                int slot = hash(x[v], y[v]) & mask;
+                while (table[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = v;
+            }
+        }
+
+        private static int hash(double x, double y) {
+            //+0.0 normalizes -0.0, since Coordinate.equals() considers them equal
+            long h = Double.doubleToLongBits(x + 0.0) * 31 + Double.doubleToLongBits(y + 0.0);
+            h *= 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Checks that both graphs trace the same faces on parallel edges and loops, then on the sample files
+     */
+    public static void main(String[] args) throws Exception {
+        WKTReader reader = new WKTReader(Polygonizer.GEOMETRY_FACTORY);
+        String[][] cases = {
+            {"LINESTRING (0 0, 1 1, 2 0)", "LINESTRING (0 0, 1 -1, 2 0)"},
+            {"LINESTRING (0 0, 1 1, 2 0)", "LINESTRING (0 0, 2 0)", "LINESTRING (0 0, 1 -1, 2 0)"},
+            {"LINESTRING (0 0, 1 1, 2 0)", "LINESTRING (0 0, 1 -1, 2 0)", "LINESTRING (2 0, 3 0)"},
+            {"LINESTRING (0 0, 2 0, 2 2, 0 2, 0 0)", "LINESTRING (2 2, 3 3, 4 2, 2 2)"},
+        };
+        for (String[] wkts : cases) {
+            List<LineString> segments = new ArrayList<>();
+            for (String wkt : wkts) {
+                segments.add((LineString)reader.read(wkt));
+            }
+            check(Arrays.toString(wkts), segments);
+        }
+        for (String file : new String[] {"src/street_segments.wkt", "src/lagoa.wkt", "src/streets_sp.wkt"}) {
+            check(file, Lists.newArrayList(new SegmentReader(new File(file))));
+        }
+    }
+
+    private static void check(String name, List<LineString> segments) {
+        List<Polygonizer.Cycle> expected = Lists.newArrayList(new Polygonizer(segments).cycles());
+        List<Polygonizer.Cycle> actual = Lists.newArrayList(new Polygonizer(segments, true).cycles());
+        if (expected.size() != actual.size()) {
+            throw new IllegalStateException(name + ": " + expected.size() + " cycles in the object graph, " + actual.size() + " in the compact one");
+        }
+        for (int i=0; i<expected.size(); i++) {
+            Polygonizer.Cycle e = expected.get(i), a = actual.get(i);
+            if (e.external != a.external || !Arrays.equals(e.coordinates(), a.coordinates()) || e.lines.size() != a.lines.size()) {
+                throw new IllegalStateException(name + ": Cycle " + i + " differs");
+            }
+        }
+        System.out.println(name + ": " + expected.size() + " cycles - OK");
+    }
+}
@@ -0,0 +1,298 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Allocation-free replacement for {@link RangeMultiMap}.
+ *
+ * Intervals are stored in a treap (Randomized binary search tree) kept in primitive arrays,
+ * ordered by (min, max, insertion order) and augmented with the largest max of each subtree.
+ * Every interval is identified by an int handle, which can be used to remove it without searching.
+ *
+ * put, remove and getValues have the same semantics (And the same output order) as in {@link RangeMultiMap},
+ * and {@link #query(double, double, Visitor)} visits the intersecting values without allocating anything.
+ */
+public class IntervalIndex<V> {
+    private static final int NIL = -1;
+
+    public interface Visitor<V> {
+        void visit(V value);
+    }
+
+    public interface HandleVisitor {
+        void visit(int handle);
+    }
+
+    private double[] min = new double[16];
+    private double[] max = new double[16];
+    private double[] subtreeMax = new double[16];
+    private long[] sequence = new long[16];
+    private int[] left = new int[16];
+    private int[] right = new int[16];
+    private int[] priority = new int[16];
+    private Object[] values = new Object[16];
+
+    private int root = NIL;
+    private int size = 0;
+    private int allocated = 0;
+    private int freeList = NIL;
+    private long nextSequence = 0;
+    private int random = 0x2545F491;
+
+    //Output of split()
+    private int splitLeft, splitRight;
+
+    /**
+     * Adds an interval
+     *
+     * @return The handle of the interval, valid until it is removed
+     */
+    public int add(double min, double max, V value) {
+        int handle = allocate();
+        this.min[handle] = min;
+        this.max[handle] = max;
+        this.subtreeMax[handle] = max;
+        this.sequence[handle] = nextSequence++;
+        this.left[handle] = NIL;
+        this.right[handle] = NIL;
+        this.priority[handle] = nextRandom();
+        this.values[handle] = value;
+
+        root = insert(root, handle);
+        size++;
+        return handle;
+    }
+
+    public boolean put(Envelope1D range, V value) {
+        add(range.min, range.max, value);
+        return true;
+    }
+
+    /**
+     * Removes an interval by its handle
+     */
+    public void remove(int handle) {
+        root = remove(root, handle);
+        values[handle] = null;
+        left[handle] = freeList;
+        freeList = handle;
+        size--;
+    }
+
+    /**
+     * Removes the oldest interval with the given range and value, like {@link RangeMultiMap#remove(Envelope1D, Object)}
+     */
+    public boolean remove(Envelope1D range, V value) {
+        int handle = find(root, range.min, range.max, value);
+        if (handle == NIL) {
+            return false;
+        }
+        remove(handle);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int handle) {
+        return (V)values[handle];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Visits the values whose intervals intersect [min, max], ordered by (min, max, insertion order)
+     */
+    public void query(double min, double max, Visitor<? super V> visitor) {
+        query(root, min, max, visitor);
+    }
+
+    /**
+     * Same as {@link #query(double, double, Visitor)}, but visits the handles
+     */
+    public void queryHandles(double min, double max, HandleVisitor visitor) {
+        queryHandles(root, min, max, visitor);
+    }
+
+    /**
+     * Same as {@link RangeMultiMap#getValues(Envelope1D)}. Unlike {@link #query(double, double, Visitor)}, this allocates the result list.
+     */
+    public Iterable<V> getValues(Envelope1D query) {
+        final List<V> ret = new ArrayList<>();
+        query(query.min, query.max, new Visitor<V>() {
+            @Override
+            public void visit(V value) {
+                ret.add(value);
+            }
+        });
+        return ret;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(int node, double qmin, double qmax, Visitor<? super V> visitor) {
+        while (node != NIL && subtreeMax[node] >= qmin) {
+            query(left[node], qmin, qmax, visitor);
+            if (min[node] > qmax) {
+                return; //Everything on the right starts even later
+            }
+            if (max[node] >= qmin) {
+                visitor.visit((V)values[node]);
+            }
+            node = right[node];
+        }
+    }
+
+    private void queryHandles(int node, double qmin, double qmax, HandleVisitor visitor) {
+        while (node != NIL && subtreeMax[node] >= qmin) {
+            queryHandles(left[node], qmin, qmax, visitor);
+            if (min[node] > qmax) {
+                return;
+            }
+            if (max[node] >= qmin) {
+                visitor.visit(node);
+            }
+            node = right[node];
+        }
+    }
+
+    private int find(int node, double fmin, double fmax, V value) {
+        while (node != NIL) {
+            int cmp = compare(fmin, fmax, node);
+            if (cmp < 0) {
+                node = left[node];
+            } else if (cmp > 0) {
+                node = right[node];
+            } else {
+                //Same range: Older entries are on the left
+                int found = find(left[node], fmin, fmax, value);
+                if (found != NIL) {
+                    return found;
+                }
+                if (value == null ? values[node] == null : value.equals(values[node])) {
+                    return node;
+                }
+                node = right[node];
+            }
+        }
+        return NIL;
+    }
+
+    private int insert(int node, int handle) {
+        if (node == NIL) {
+            return handle;
+        }
+        if (priority[handle] > priority[node]) {
+            split(node, handle);
+            left[handle] = splitLeft;
+            right[handle] = splitRight;
+            update(handle);
+            return handle;
+        }
+        if (compare(handle, node) < 0) {
+            left[node] = insert(left[node], handle);
+        } else {
+            right[node] = insert(right[node], handle);
+        }
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits the subtree into the nodes before and after the key, into splitLeft and splitRight
+     */
+    private void split(int node, int key) {
+        if (node == NIL) {
+            splitLeft = splitRight = NIL;
+        } else if (compare(node, key) < 0) {
+            split(right[node], key);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        } else {
+            split(left[node], key);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        }
+    }
+
+    private int remove(int node, int handle) {
+        if (node == handle) {
+            return merge(left[node], right[node]);
+        }
+        if (compare(handle, node) < 0) {
+            left[node] = remove(left[node], handle);
+        } else {
+            right[node] = remove(right[node], handle);
+        }
+        update(node);
+        return node;
+    }
+
+    private int merge(int a, int b) {
+        if (a == NIL) {
+            return b;
+        }
+        if (b == NIL) {
+            return a;
+        }
+        if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b);
+            update(a);
+            return a;
+        } else {
+            left[b] = merge(a, left[b]);
+            update(b);
+            return b;
+        }
+    }
+
+    private void update(int node) {
+        double m = max[node];
+        if (left[node] != NIL) {
+            m = Math.max(m, subtreeMax[left[node]]);
+        }
+        if (right[node] != NIL) {
+            m = Math.max(m, subtreeMax[right[node]]);
+        }
+        subtreeMax[node] = m;
+    }
+
+    private int compare(int a, int b) {
+        int cmp = compare(min[a], max[a], b);
+        return cmp != 0 ? cmp : Long.compare(sequence[a], sequence[b]);
+    }
+
+    private int compare(double amin, double amax, int b) {
+        int cmp = Double.compare(amin, min[b]);
+        return cmp != 0 ? cmp : Double.compare(amax, max[b]);
+    }
+
+    private int allocate() {
+        if (freeList != NIL) {
+            int handle = freeList;
+            freeList = left[handle];
+            return handle;
+        }
+        if (allocated == min.length) {
+            int capacity = 2 * allocated;
+            min = Arrays.copyOf(min, capacity);
+            max = Arrays.copyOf(max, capacity);
+            subtreeMax = Arrays.copyOf(subtreeMax, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+            left = Arrays.copyOf(left, capacity);
+            right = Arrays.copyOf(right, capacity);
+            priority = Arrays.copyOf(priority, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        return allocated++;
+    }
+
+    private int nextRandom() {
+        //xorshift32
+        random ^= random << 13;
+        random ^= random >>> 17;
+        random ^= random << 5;
+        return random;
+    }
+}
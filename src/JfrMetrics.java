@@ -0,0 +1,120 @@
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link Metrics.Listener} which emits custom JFR events, to be recorded with the rest of the JVM activity:
+ * <code>java -XX:StartFlightRecording=filename=run.jfr ...</code>
+ *
+ * Requires a JVM with JFR (8u262 or later). Only cycles slower than the threshold emit an event, so that pathological ones stand out.
+ *
+ * jdk.jfr is not part of the Java 8 API, so this class must be compiled with JDK 11 or later, and is the only one that needs it.
+ * Nothing else refers to it: Leave it out to build the rest with <code>--release 8</code>, as the benchmarks do.
+ */
+public class JfrMetrics implements Metrics.Listener {
+    private final long cycleThresholdNanos;
+
+    public JfrMetrics() {
+        this(0);
+    }
+
+    /**
+     * @param cycleThresholdNanos Minimum buffering time of the cycles that emit an event
+     */
+    public JfrMetrics(long cycleThresholdNanos) {
+        this.cycleThresholdNanos = cycleThresholdNanos;
+    }
+
+    @Override
+    public void stage(String stage, long nanos) {
+        StageEvent event = new StageEvent();
+        event.stage = stage;
+        event.time = nanos;
+        event.commit();
+    }
+
+    @Override
+    public void count(String name, long value) {
+        CountEvent event = new CountEvent();
+        event.name = name;
+        event.value = value;
+        event.peak = false;
+        event.commit();
+    }
+
+    @Override
+    public void peak(String name, long value) {
+        CountEvent event = new CountEvent();
+        event.name = name;
+        event.value = value;
+        event.peak = true;
+        event.commit();
+    }
+
+    @Override
+    public void buffered(Polygonizer.Cycle cycle, long nanos) {
+        if (nanos < cycleThresholdNanos) {
+            return;
+        }
+        CycleEvent event = new CycleEvent();
+        if (event.shouldCommit()) {
+            event.time = nanos;
+            event.minX = cycle.envelope.getMinX();
+            event.minY = cycle.envelope.getMinY();
+            event.maxX = cycle.envelope.getMaxX();
+            event.maxY = cycle.envelope.getMaxY();
+            event.points = cycle.points;
+            event.holes = cycle.holes.size();
+            event.deadEnds = cycle.lines.size();
+            event.commit();
+        }
+    }
+
+    @Name("polygonizer.Stage")
+    @Label("Stage")
+    @Category("Polygonizer")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+        @Label("Time")
+        @Timespan
+        long time;
+    }
+
+    @Name("polygonizer.Count")
+    @Label("Count")
+    @Category("Polygonizer")
+    static class CountEvent extends Event {
+        @Label("Name")
+        String name;
+        @Label("Value")
+        long value;
+        @Label("Peak")
+        boolean peak;
+    }
+
+    @Name("polygonizer.CycleBuffered")
+    @Label("Cycle Buffered")
+    @Category("Polygonizer")
+    static class CycleEvent extends Event {
+        @Label("Time")
+        @Timespan
+        long time;
+        @Label("Min X")
+        double minX;
+        @Label("Min Y")
+        double minY;
+        @Label("Max X")
+        double maxX;
+        @Label("Max Y")
+        double maxY;
+        @Label("Shell Points")
+        int points;
+        @Label("Holes")
+        int holes;
+        @Label("Dead Ends")
+        int deadEnds;
+    }
+}
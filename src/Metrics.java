@@ -0,0 +1,294 @@
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * Optional instrumentation of the pipeline, which costs nothing until a {@link Listener} is set.
+ *
+ * The listener is called from any thread, with:
+ * - Stage timings: <code>noding</code>, <code>graph</code>, <code>reduce</code>, <code>simplify</code>, <code>traversal</code>, <code>holes</code>
+ * - Counts: <code>graph.vertexes</code>, <code>graph.halfEdges</code>, <code>faces</code>, <code>faces.external</code>, <code>faces.deadEnds</code>,
+ *   <code>containment.tests</code>, <code>containment.exact</code>, <code>simplify.edges</code>, <code>simplify.reverted</code>,
+ *   and the {@link Prechecks}: <code>prechecks.checks</code>, <code>prechecks.skipped</code> operations, <code>prechecks.thinFaces</code>,
+ *   <code>prechecks.distantLines</code>, <code>prechecks.emptyInnerRings</code>
+ * - Peaks: <code>sweep.active</code>, the largest number of cycles active in a bounding box sweep
+ * - Every buffered cycle and how long it took, to find the pathological ones
+ *
+ * Streamed stages are timed while their iterator runs, so they include the time of the stages they pull from.
+ * {@link Recorder} keeps totals and a latency histogram, <code>JfrMetrics</code> turns everything into JFR events.
+ */
+public class Metrics {
+    public interface Listener {
+        void stage(String stage, long nanos);
+
+        /**
+         * Reported once per run of the stage that counted it, or once per cycle for the prechecks
+         */
+        void count(String name, long value);
+
+        /**
+         * Largest value seen by a run, which may be reported by several threads
+         */
+        void peak(String name, long value);
+
+        void buffered(Polygonizer.Cycle cycle, long nanos);
+    }
+
+    private static volatile Listener listener;
+
+    public static void setListener(Listener listener) {
+        Metrics.listener = listener;
+    }
+
+    public static Listener getListener() {
+        return listener;
+    }
+
+    static boolean enabled() {
+        return listener != null;
+    }
+
+    /**
+     * @return The start time for {@link #stage(String, long)} or {@link #buffered(Polygonizer.Cycle, long)}
+     */
+    static long start() {
+        return listener != null ? System.nanoTime() : 0;
+    }
+
+    static void stage(String stage, long start) {
+        Listener listener = Metrics.listener;
+        if (listener != null && start != 0) { //Not if the listener was set in the middle of the stage
+            listener.stage(stage, System.nanoTime() - start);
+        }
+    }
+
+    static void count(String name, long value) {
+        Listener listener = Metrics.listener;
+        if (listener != null) {
+            listener.count(name, value);
+        }
+    }
+
+    static void peak(String name, long value) {
+        Listener listener = Metrics.listener;
+        if (listener != null) {
+            listener.peak(name, value);
+        }
+    }
+
+    static void buffered(Polygonizer.Cycle cycle, long start) {
+        Listener listener = Metrics.listener;
+        if (listener != null && start != 0) {
+            listener.buffered(cycle, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Reports the time spent iterating as a stage, once the iteration is over
+     */
+    static <T> Iterable<T> timed(final String stage, final Iterable<T> iterable) {
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                final Iterator<T> it = iterable.iterator();
+                if (!enabled()) {
+                    return it;
+                }
+                return new TimedIterator<T>(it) {
+                    @Override
+                    void done(Listener listener, long nanos) {
+                        listener.stage(stage, nanos);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Same as {@link #timed(String, Iterable)} for the <code>traversal</code> stage, also counting faces and dead ends
+     */
+    static Iterable<Polygonizer.Cycle> traversal(final Iterable<Polygonizer.Cycle> cycles) {
+        return new Iterable<Polygonizer.Cycle>() {
+            @Override
+            public Iterator<Polygonizer.Cycle> iterator() {
+                final Iterator<Polygonizer.Cycle> it = cycles.iterator();
+                if (!enabled()) {
+                    return it;
+                }
+                return new TimedIterator<Polygonizer.Cycle>(it) {
+                    long faces, external, deadEnds;
+
+                    @Override
+                    void item(Polygonizer.Cycle cycle) {
+                        faces++;
+                        if (cycle.external) {
+                            external++;
+                        }
+                        deadEnds += cycle.lines.size();
+                    }
+
+                    @Override
+                    void done(Listener listener, long nanos) {
+                        listener.stage("traversal", nanos);
+                        listener.count("faces", faces);
+                        listener.count("faces.external", external);
+                        listener.count("faces.deadEnds", deadEnds);
+                    }
+                };
+            }
+        };
+    }
+
+    private static abstract class TimedIterator<T> implements Iterator<T> {
+        final Iterator<T> it;
+        long nanos;
+        boolean done;
+
+        TimedIterator(Iterator<T> it) {
+            this.it = it;
+        }
+
+        @Override
+        public boolean hasNext() {
+            long start = System.nanoTime();
+            boolean ret = it.hasNext();
+            nanos += System.nanoTime() - start;
+            Listener listener = Metrics.listener;
+            if (!ret && !done && listener != null) {
+                done = true;
+                done(listener, nanos);
+            }
+            return ret;
+        }
+
+        @Override
+        public T next() {
+            long start = System.nanoTime();
+            T ret = it.next();
+            nanos += System.nanoTime() - start;
+            item(ret);
+            return ret;
+        }
+
+        @Override
+        public void remove() {
+            it.remove();
+        }
+
+        void item(T value) {
+        }
+
+        abstract void done(Listener listener, long nanos);
+    }
+
+    /**
+     * Listener which keeps:
+     * - The total time and number of runs of each stage
+     * - The sum of each count, and the maximum of each peak
+     * - A histogram of the buffering latency of the cycles, in powers of 2, and the slowest cycle
+     */
+    public static class Recorder implements Listener {
+        private final ConcurrentMap<String, AtomicLong> stageNanos = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> stageRuns = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> peaks = new ConcurrentHashMap<>();
+        private final AtomicLongArray latencies = new AtomicLongArray(64); //By log2(nanos)
+        private long slowestNanos = -1;
+        private Envelope slowestEnvelope;
+
+        @Override
+        public void stage(String stage, long nanos) {
+            counter(stageNanos, stage).addAndGet(nanos);
+            counter(stageRuns, stage).incrementAndGet();
+        }
+
+        @Override
+        public void count(String name, long value) {
+            counter(counts, name).addAndGet(value);
+        }
+
+        @Override
+        public void peak(String name, long value) {
+            AtomicLong peak = counter(peaks, name);
+            long current;
+            while ((current = peak.get()) < value && !peak.compareAndSet(current, value));
+        }
+
+        @Override
+        public void buffered(Polygonizer.Cycle cycle, long nanos) {
+            latencies.incrementAndGet(63 - Long.numberOfLeadingZeros(Math.max(1, nanos)));
+            synchronized (this) {
+                if (nanos > slowestNanos) {
+                    slowestNanos = nanos;
+                    slowestEnvelope = cycle.envelope;
+                }
+            }
+        }
+
+        public long stageNanos(String stage) {
+            AtomicLong ret = stageNanos.get(stage);
+            return ret == null ? 0 : ret.get();
+        }
+
+        public long count(String name) {
+            AtomicLong ret = counts.get(name);
+            return ret == null ? 0 : ret.get();
+        }
+
+        public long peak(String name) {
+            AtomicLong ret = peaks.get(name);
+            return ret == null ? 0 : ret.get();
+        }
+
+        /**
+         * @return Number of cycles whose buffering took [2^i, 2^(i+1)) nanoseconds
+         */
+        public long[] latencyHistogram() {
+            long[] ret = new long[latencies.length()];
+            for (int i=0; i<ret.length; i++) {
+                ret[i] = latencies.get(i);
+            }
+            return ret;
+        }
+
+        public String report() {
+            StringBuilder ret = new StringBuilder("Metrics:");
+            for (Map.Entry<String, AtomicLong> stage : new TreeMap<>(stageNanos).entrySet()) {
+                ret.append(String.format("%n  %s: %.1fms in %d runs", stage.getKey(), stage.getValue().get() / 1e6, stageRuns.get(stage.getKey()).get()));
+            }
+            for (Map.Entry<String, AtomicLong> count : new TreeMap<>(counts).entrySet()) {
+                ret.append(String.format("%n  %s: %d", count.getKey(), count.getValue().get()));
+            }
+            for (Map.Entry<String, AtomicLong> peak : new TreeMap<>(peaks).entrySet()) {
+                ret.append(String.format("%n  %s: %d (peak)", peak.getKey(), peak.getValue().get()));
+            }
+            long[] histogram = latencyHistogram();
+            for (int i=0; i<histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    ret.append(String.format("%n  buffer latency < %.3fms: %d cycles", (2L << i) / 1e6, histogram[i]));
+                }
+            }
+            synchronized (this) {
+                if (slowestEnvelope != null) {
+                    ret.append(String.format("%n  slowest cycle: %.1fms, %s", slowestNanos / 1e6, slowestEnvelope));
+                }
+            }
+            return ret.toString();
+        }
+
+        private static AtomicLong counter(ConcurrentMap<String, AtomicLong> map, String name) {
+            AtomicLong ret = map.get(name);
+            if (ret == null) {
+                map.putIfAbsent(name, new AtomicLong());
+                ret = map.get(name);
+            }
+            return ret;
+        }
+    }
+}
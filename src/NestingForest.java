@@ -0,0 +1,345 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Containment hierarchy of the cycles of a planar graph.
+ *
+ * Every connected component has one external cycle and zero or more internal faces.
+ * The external cycle of a component lies directly inside a single face of another component (Its container), or outside everything.
+ *
+ * Containers are found with a single sweep-line, shooting a ray upwards from the top-left vertex of every external cycle:
+ * - Every face lies on the right of its shell ring, so each non-vertical piece of the graph is stored once, with the face below it.
+ *   Dead ends have the same face on both sides.
+ * - The active pieces never cross, so they can be kept in a tree ordered by Y.
+ * - The first piece above the vertex belongs either to the container, or to another external cycle which shares the same container.
+ *   That one's top-left vertex is always swept first, so each external cycle is resolved once, in O(log n).
+ * Pieces that no ray goes through never enter the tree.
+ */
+public class NestingForest {
+    private final List<Polygonizer.Cycle> cycles;
+    private final Map<Polygonizer.Cycle, Polygonizer.Cycle> containers = new HashMap<>();
+    private final Map<Polygonizer.Cycle, List<Polygonizer.Cycle>> holes = new HashMap<>();
+    private final Map<Polygonizer.Cycle, Polygonizer.Cycle> externals = new HashMap<>();
+    private final Map<Polygonizer.Cycle, List<Polygonizer.Cycle>> faces = new HashMap<>();
+
+    public NestingForest(Iterable<Polygonizer.Cycle> cycles) {
+        this.cycles = Collections.unmodifiableList(Lists.newArrayList(cycles));
+        findContainers();
+    }
+
+    public List<Polygonizer.Cycle> cycles() {
+        return cycles;
+    }
+
+    /**
+     * @return The face directly containing an external cycle, or null if it is not inside any face
+     */
+    public Polygonizer.Cycle container(Polygonizer.Cycle external) {
+        return containers.get(external);
+    }
+
+    /**
+     * @return The external cycles directly inside the face, or the outermost ones if the face is null
+     */
+    public List<Polygonizer.Cycle> holes(Polygonizer.Cycle face) {
+        List<Polygonizer.Cycle> ret = holes.get(face);
+        return ret == null ? Collections.<Polygonizer.Cycle>emptyList() : ret;
+    }
+
+    /**
+     * @return The external cycle of the component of the cycle
+     */
+    public Polygonizer.Cycle external(Polygonizer.Cycle cycle) {
+        findComponents();
+        return externals.get(cycle);
+    }
+
+    /**
+     * @return The internal faces of the component of an external cycle
+     */
+    public List<Polygonizer.Cycle> faces(Polygonizer.Cycle external) {
+        findComponents();
+        List<Polygonizer.Cycle> ret = faces.get(external);
+        return ret == null ? Collections.<Polygonizer.Cycle>emptyList() : ret;
+    }
+
+    /**
+     * @return The face directly containing a face, or null if it is not inside any face
+     */
+    public Polygonizer.Cycle parent(Polygonizer.Cycle face) {
+        return container(external(face));
+    }
+
+    /**
+     * @return The faces directly inside a face, or the outermost ones if the face is null
+     */
+    public List<Polygonizer.Cycle> children(Polygonizer.Cycle face) {
+        List<Polygonizer.Cycle> ret = new ArrayList<>();
+        for (Polygonizer.Cycle hole : holes(face)) {
+            ret.addAll(faces(hole));
+        }
+        return ret;
+    }
+
+    /**
+     * Groups the cycles that share vertexes. Only done if needed.
+     */
+    private void findComponents() {
+        if (!externals.isEmpty() || cycles.isEmpty()) {
+            return;
+        }
+        int[] parent = new int[cycles.size()];
+        Map<Coordinate, Integer> cycleAtVertex = new HashMap<>();
+        for (int i=0; i<cycles.size(); i++) {
+            parent[i] = i;
+            Polygonizer.Cycle cycle = cycles.get(i);
+            for (Coordinate c : cycle.coordinates()) {
+                union(parent, i, cycleAtVertex, c);
+            }
+            for (LineString line : cycle.lines) {
+                union(parent, i, cycleAtVertex, line.getCoordinateN(0));
+                union(parent, i, cycleAtVertex, line.getCoordinateN(line.getNumPoints() - 1));
+            }
+        }
+
+        Map<Integer, Polygonizer.Cycle> externalOfComponent = new HashMap<>();
+        for (int i=0; i<cycles.size(); i++) {
+            if (cycles.get(i).external) {
+                externalOfComponent.put(find(parent, i), cycles.get(i));
+            }
+        }
+        for (int i=0; i<cycles.size(); i++) {
+            Polygonizer.Cycle cycle = cycles.get(i);
+            Polygonizer.Cycle external = externalOfComponent.get(find(parent, i));
+            externals.put(cycle, external);
+            if (!cycle.external) {
+                list(faces, external).add(cycle);
+            }
+        }
+    }
+
+    private static void union(int[] parent, int cycle, Map<Coordinate, Integer> cycleAtVertex, Coordinate c) {
+        Integer other = cycleAtVertex.get(c);
+        if (other == null) {
+            cycleAtVertex.put(c, cycle);
+        } else {
+            parent[find(parent, other)] = find(parent, cycle);
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private void findContainers() {
+        //Top-left vertex of every external cycle
+        List<Query> queries = new ArrayList<>();
+        for (Polygonizer.Cycle cycle : cycles) {
+            if (cycle.external) {
+                Query query = new Query(cycle);
+                for (Coordinate c : cycle.coordinates()) {
+                    query.offer(c);
+                }
+                for (LineString line : cycle.lines) {
+                    for (Coordinate c : line.getCoordinates()) {
+                        query.offer(c);
+                    }
+                }
+                queries.add(query);
+            }
+        }
+        Collections.sort(queries);
+
+        double[] queryX = new double[queries.size()];
+        for (int i=0; i<queryX.length; i++) {
+            queryX[i] = queries.get(i).vertex.x;
+        }
+
+        //Pieces with the face below them. Pieces which no ray goes through are skipped.
+        List<Piece> pieces = new ArrayList<>();
+        for (Polygonizer.Cycle cycle : cycles) {
+            Coordinate[] ring = cycle.coordinates();
+            for (int i=1; i<ring.length; i++) {
+                if (ring[i-1].x < ring[i].x && crossesRay(queryX, ring[i-1].x, ring[i].x)) {
+                    pieces.add(new Piece(ring[i-1], ring[i], cycle, pieces.size()));
+                }
+            }
+            for (LineString line : cycle.lines) {
+                Coordinate[] coords = line.getCoordinates();
+                for (int i=1; i<coords.length; i++) {
+                    if (coords[i-1].x < coords[i].x && crossesRay(queryX, coords[i-1].x, coords[i].x)) {
+                        pieces.add(new Piece(coords[i-1], coords[i], cycle, pieces.size()));
+                    } else if (coords[i-1].x > coords[i].x && crossesRay(queryX, coords[i].x, coords[i-1].x)) {
+                        pieces.add(new Piece(coords[i], coords[i-1], cycle, pieces.size()));
+                    }
+                }
+            }
+        }
+
+        Piece[] byStart = pieces.toArray(new Piece[pieces.size()]);
+        Piece[] byEnd = byStart.clone();
+        Arrays.sort(byStart, new Comparator<Piece>() {
+            @Override
+            public int compare(Piece o1, Piece o2) {
+                return Double.compare(o1.x1, o2.x1);
+            }
+        });
+        Arrays.sort(byEnd, new Comparator<Piece>() {
+            @Override
+            public int compare(Piece o1, Piece o2) {
+                return Double.compare(o1.x2, o2.x2);
+            }
+        });
+
+        //A piece is active in [x1, x2)
+        TreeSet<Piece> active = new TreeSet<>();
+        int nextStart = 0, nextEnd = 0;
+        for (Query query : queries) {
+            while (true) {
+                if (nextEnd < byEnd.length && byEnd[nextEnd].x2 <= query.vertex.x
+                        && (nextStart == byStart.length || byEnd[nextEnd].x2 <= byStart[nextStart].x1)) {
+                    active.remove(byEnd[nextEnd++]);
+                } else if (nextStart < byStart.length && byStart[nextStart].x1 <= query.vertex.x) {
+                    active.add(byStart[nextStart++]);
+                } else {
+                    break;
+                }
+            }
+
+            Polygonizer.Cycle container = null;
+            Piece above = active.higher(new Piece(query.vertex));
+            if (above != null) {
+                container = above.face;
+                if (container.external) {
+                    if (!containers.containsKey(container)) {
+                        throw new IllegalStateException("External cycle swept out of order: " + container.envelope);
+                    }
+                    container = containers.get(container);
+                }
+            }
+            containers.put(query.cycle, container);
+        }
+
+        //Holes in input order
+        for (Polygonizer.Cycle cycle : cycles) {
+            if (cycle.external) {
+                list(holes, containers.get(cycle)).add(cycle);
+            }
+        }
+    }
+
+    /**
+     * @return Whether any of the sorted X values is in [x1, x2)
+     */
+    private static boolean crossesRay(double[] queryX, double x1, double x2) {
+        int lo = 0, hi = queryX.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (queryX[mid] < x1) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < queryX.length && queryX[lo] < x2;
+    }
+
+    private static <K, V> List<V> list(Map<K, List<V>> map, K key) {
+        List<V> ret = map.get(key);
+        if (ret == null) {
+            ret = new ArrayList<>();
+            map.put(key, ret);
+        }
+        return ret;
+    }
+
+    /**
+     * Non-vertical straight piece of the graph, from left to right
+     */
+    private static class Piece implements Comparable<Piece> {
+        final double x1, y1, x2, y2;
+        final Polygonizer.Cycle face; //Face below the piece
+        final int id;
+        final Coordinate probe; //Query vertex, if this is not a real piece
+
+        Piece(Coordinate c1, Coordinate c2, Polygonizer.Cycle face, int id) {
+            this.x1 = c1.x;
+            this.y1 = c1.y;
+            this.x2 = c2.x;
+            this.y2 = c2.y;
+            this.face = face;
+            this.id = id;
+            this.probe = null;
+        }
+
+        Piece(Coordinate probe) {
+            this.x1 = this.x2 = probe.x;
+            this.y1 = this.y2 = probe.y;
+            this.face = null;
+            this.id = -1;
+            this.probe = probe;
+        }
+
+        double y(double x) {
+            if (x == x1) {
+                return y1;
+            }
+            if (x == x2) {
+                return y2;
+            }
+            return y1 + (y2 - y1) * (x - x1) / (x2 - x1);
+        }
+
+        @Override
+        public int compareTo(Piece o) {
+            if (probe != null) {
+                return probe.y < o.y(probe.x) ? -1 : 1; //A piece through the vertex is not above it
+            }
+            if (o.probe != null) {
+                return -o.compareTo(this);
+            }
+            //Active pieces overlap in a non-empty X range, and don't cross
+            double x = (Math.max(x1, o.x1) + Math.min(x2, o.x2)) / 2;
+            int cmp = Double.compare(y(x), o.y(x));
+            return cmp != 0 ? cmp : Integer.compare(id, o.id);
+        }
+    }
+
+    /**
+     * Top-left vertex of an external cycle. Sorted by X, then by descending Y.
+     */
+    private static class Query implements Comparable<Query> {
+        final Polygonizer.Cycle cycle;
+        Coordinate vertex;
+
+        Query(Polygonizer.Cycle cycle) {
+            this.cycle = cycle;
+        }
+
+        void offer(Coordinate c) {
+            if (vertex == null || c.x < vertex.x || (c.x == vertex.x && c.y > vertex.y)) {
+                vertex = c;
+            }
+        }
+
+        @Override
+        public int compareTo(Query o) {
+            int cmp = Double.compare(vertex.x, o.vertex.x);
+            return cmp != 0 ? cmp : Double.compare(o.vertex.y, vertex.y);
+        }
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.vividsolutions.jts.algorithm.LineIntersector;
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineSegment;
+import com.vividsolutions.jts.noding.MCIndexNoder;
+import com.vividsolutions.jts.noding.NodedSegmentString;
+import com.vividsolutions.jts.noding.SegmentIntersector;
+import com.vividsolutions.jts.noding.SegmentString;
+
+/**
+ * Simplifies the lines of a noded network, each one on its own, without changing how they connect:
+ * - Every line is simplified with Douglas-Peucker, in parallel, keeping its endpoints
+ * - Simplified lines that now cross or touch another line, or themselves, are put back as they were, until nothing crosses
+ *
+ * Lines which were already crossing each other before are left alone.
+ *
+ * Fixed lines, like dead ends hanging from the network, are never simplified, but the lines must not cross them either,
+ * and keep the vertexes they hang from.
+ */
+public class NetworkSimplifier {
+    private static final int TASK_SIZE = 256;
+
+    private final int size;
+    private final Coordinate[][] original; //The lines, followed by the fixed lines
+    private final Coordinate[][] current;
+    private final BitSet simplified = new BitSet();
+    private final Set<Coordinate> pinned = new HashSet<>(); //Endpoints of the fixed lines
+
+    public NetworkSimplifier(List<Coordinate[]> lines) {
+        this(lines, Collections.<Coordinate[]>emptyList());
+    }
+
+    public NetworkSimplifier(List<Coordinate[]> lines, List<Coordinate[]> fixedLines) {
+        this.size = lines.size();
+        this.original = new Coordinate[lines.size() + fixedLines.size()][];
+        for (int i=0; i<lines.size(); i++) {
+            original[i] = lines.get(i);
+        }
+        for (int i=0; i<fixedLines.size(); i++) {
+            Coordinate[] line = fixedLines.get(i);
+            original[size + i] = line;
+            pinned.add(line[0]);
+            pinned.add(line[line.length-1]);
+        }
+        this.current = original.clone();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Coordinate[] get(int line) {
+        return current[line];
+    }
+
+    public boolean isSimplified(int line) {
+        return simplified.get(line);
+    }
+
+    /**
+     * Puts the line back as it was
+     *
+     * @return False if it wasn't simplified
+     */
+    public boolean revert(int line) {
+        if (!simplified.get(line)) {
+            return false;
+        }
+        current[line] = original[line];
+        simplified.clear(line);
+        return true;
+    }
+
+    /**
+     * Simplifies every line, without checking for crossings
+     */
+    public void simplify(double tolerance, ForkJoinPool pool) {
+        pool.invoke(new SimplifyTask(tolerance, 0, size));
+        for (int i=0; i<size; i++) {
+            if (current[i] != original[i]) {
+                simplified.set(i);
+            }
+        }
+    }
+
+    private class SimplifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final double tolerance;
+        final int from, to;
+
+        SimplifyTask(double tolerance, int from, int to) {
+            this.tolerance = tolerance;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > TASK_SIZE) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new SimplifyTask(tolerance, from, mid), new SimplifyTask(tolerance, mid, to));
+                return;
+            }
+            for (int i=from; i<to; i++) {
+                Coordinate[] line = original[i];
+                if (line.length <= 2) {
+                    continue;
+                }
+                Coordinate[] ret = douglasPeucker(line, tolerance, pinned);
+                boolean closed = line[0].equals2D(line[line.length-1]);
+                if (ret.length < line.length && (!closed || ret.length >= 4)) { //Rings must not collapse
+                    current[i] = ret;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param pinned Vertexes that must be kept, besides the endpoints
+     */
+    static Coordinate[] douglasPeucker(Coordinate[] line, double tolerance, Set<Coordinate> pinned) {
+        boolean[] keep = new boolean[line.length];
+        keep[0] = keep[line.length-1] = true;
+        int count = 2;
+        LineSegment segment = new LineSegment();
+        List<int[]> pending = new ArrayList<>();
+        int from = 0;
+        for (int i=1; i<line.length-1; i++) {
+            if (pinned.contains(line[i])) {
+                keep[i] = true;
+                count++;
+                pending.add(new int[] {from, i});
+                from = i;
+            }
+        }
+        pending.add(new int[] {from, line.length-1});
+        while (!pending.isEmpty()) {
+            int[] range = pending.remove(pending.size() - 1);
+            segment.p0 = line[range[0]];
+            segment.p1 = line[range[1]];
+            int farthest = -1;
+            double maxDistance = tolerance;
+            for (int i=range[0]+1; i<range[1]; i++) {
+                double distance = segment.distance(line[i]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                count++;
+                pending.add(new int[] {range[0], farthest});
+                pending.add(new int[] {farthest, range[1]});
+            }
+        }
+        Coordinate[] ret = new Coordinate[count];
+        for (int i=0, j=0; i<line.length; i++) {
+            if (keep[i]) {
+                ret[j++] = line[i];
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Puts back every simplified line that crosses or touches another line, or itself, other than at their endpoints,
+     * or that crosses or touches a fixed line, other than where the fixed line ends.
+     * Reverting a line may uncover another crossing, so it must be called until it returns 0.
+     *
+     * @return Number of lines reverted
+     */
+    public int revertCrossings() {
+        List<NodedSegmentString> strings = new ArrayList<>(current.length);
+        for (int i=0; i<current.length; i++) {
+            strings.add(new NodedSegmentString(current[i], i));
+        }
+        CrossingFinder finder = new CrossingFinder();
+        new MCIndexNoder(finder).computeNodes(strings);
+
+        int ret = 0;
+        for (int i=finder.crossing.nextSetBit(0); i>=0; i=finder.crossing.nextSetBit(i+1)) {
+            if (revert(i)) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+    private class CrossingFinder implements SegmentIntersector {
+        final LineIntersector lineIntersector = new RobustLineIntersector();
+        final BitSet crossing = new BitSet();
+
+        @Override
+        public void processIntersections(SegmentString e0, int segIndex0, SegmentString e1, int segIndex1) {
+            if (e0 == e1 && segIndex0 == segIndex1) {
+                return;
+            }
+            int line0 = (Integer)e0.getData();
+            int line1 = (Integer)e1.getData();
+            if (!simplified.get(line0) && !simplified.get(line1)) {
+                return;
+            }
+            Coordinate[] coords0 = e0.getCoordinates();
+            Coordinate[] coords1 = e1.getCoordinates();
+            Coordinate p00 = coords0[segIndex0];
+            Coordinate p01 = coords0[segIndex0 + 1];
+            Coordinate p10 = coords1[segIndex1];
+            Coordinate p11 = coords1[segIndex1 + 1];
+            lineIntersector.computeIntersection(p00, p01, p10, p11);
+            if (!lineIntersector.hasIntersection()) {
+                return;
+            }
+            if (lineIntersector.getIntersectionNum() == 1 && !lineIntersector.isProper()) {
+                //Consecutive segments of a line touch at their shared vertex, different lines at the vertexes they share,
+                //and fixed lines at the vertex they hang from
+                Coordinate p = lineIntersector.getIntersection(0);
+                boolean sharedVertex = (p.equals2D(p00) || p.equals2D(p01)) && (p.equals2D(p10) || p.equals2D(p11));
+                boolean connected;
+                if (e0 == e1) {
+                    connected = Math.abs(segIndex0 - segIndex1) == 1 || isEndpoint(p, coords0);
+                } else if (line0 >= size || line1 >= size) {
+                    connected = isEndpoint(p, line0 >= size ? coords0 : coords1);
+                } else {
+                    connected = isEndpoint(p, coords0) && isEndpoint(p, coords1);
+                }
+                if (sharedVertex && connected) {
+                    return;
+                }
+            }
+            crossing.set(line0);
+            crossing.set(line1);
+        }
+
+        private boolean isEndpoint(Coordinate p, Coordinate[] coords) {
+            return p.equals2D(coords[0]) || p.equals2D(coords[coords.length-1]);
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.vividsolutions.jts.algorithm.LineIntersector;
+import com.vividsolutions.jts.algorithm.RobustLineIntersector;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.noding.MCIndexNoder;
+import com.vividsolutions.jts.noding.NodedSegmentString;
+import com.vividsolutions.jts.noding.SegmentIntersector;
+import com.vividsolutions.jts.noding.SegmentString;
+
+/**
+ * Prepares raw line work for {@link Polygonizer}, which expects a fully noded graph:
+ * - Every coordinate is snapped to a grid, so that nearly coincident vertexes become a single vertex
+ * - Lines are split wherever they intersect, with the intersections also snapped to the grid
+ * - Collapsed and duplicate lines are removed
+ *
+ * Intersections are found with a monotone-chain noder, repeated until snapping creates no new intersections,
+ * or failing after {@value #MAX_PASSES} passes rather than returning lines that aren't fully noded.
+ * Snapped vertexes are deduplicated with fixed-point long keys in an open-addressing table,
+ * so equal vertexes also share the same Coordinate instance.
+ */
+public class Noder {
+    private static final int MAX_PASSES = 10;
+
+    private final double gridSize;
+
+    /**
+     * @param gridSize Distance between grid lines, in the units of the coordinates
+     */
+    public Noder(double gridSize) {
+        if (!(gridSize > 0)) {
+            throw new IllegalArgumentException("gridSize must be positive: " + gridSize);
+        }
+        this.gridSize = gridSize;
+    }
+
+    /**
+     * @throws IllegalStateException If snapping still creates new intersections after {@value #MAX_PASSES} passes
+     */
+    public List<LineString> node(Iterable<LineString> lines) {
+        long start = Metrics.start();
+        Grid grid = new Grid();
+
+        List<NodedSegmentString> strings = new ArrayList<>();
+        for (LineString line : lines) {
+            Coordinate[] coords = grid.snap(line.getCoordinates());
+            if (coords != null) {
+                strings.add(new NodedSegmentString(coords, null));
+            }
+        }
+
+        for (int pass=1; ; pass++) {
+            Intersector intersector = new Intersector(grid);
+            MCIndexNoder noder = new MCIndexNoder(intersector);
+            noder.computeNodes(strings);
+            if (intersector.nodesAdded == 0) {
+                break;
+            }
+            if (pass == MAX_PASSES) {
+                throw new IllegalStateException("Snapping still creates new intersections after " + MAX_PASSES + " passes, gridSize " + gridSize);
+            }
+
+            //Rounded intersections may create new ones, so the substrings are noded again
+            List<NodedSegmentString> substrings = new ArrayList<>();
+            for (Object substring : NodedSegmentString.getNodedSubstrings(strings)) {
+                Coordinate[] coords = grid.snap(((SegmentString)substring).getCoordinates());
+                if (coords != null) {
+                    substrings.add(new NodedSegmentString(coords, null));
+                }
+            }
+            strings = substrings;
+        }
+
+        //Remove duplicates, in either direction
+        List<LineString> ret = new ArrayList<>();
+        Set<Path> paths = new HashSet<>();
+        for (NodedSegmentString string : strings) {
+            Coordinate[] coords = string.getCoordinates();
+            if (paths.add(new Path(grid, coords))) {
+                ret.add(Polygonizer.GEOMETRY_FACTORY.createLineString(coords));
+            }
+        }
+        Metrics.stage("noding", start);
+        return ret;
+    }
+
+    /**
+     * Splits segments at their intersections, snapped to the grid
+     */
+    private static class Intersector implements SegmentIntersector {
+        final Grid grid;
+        final LineIntersector lineIntersector = new RobustLineIntersector();
+        int nodesAdded = 0;
+
+        Intersector(Grid grid) {
+            this.grid = grid;
+        }
+
+        @Override
+        public void processIntersections(SegmentString e0, int segIndex0, SegmentString e1, int segIndex1) {
+            if (e0 == e1 && segIndex0 == segIndex1) {
+                return;
+            }
+            Coordinate p00 = e0.getCoordinates()[segIndex0];
+            Coordinate p01 = e0.getCoordinates()[segIndex0 + 1];
+            Coordinate p10 = e1.getCoordinates()[segIndex1];
+            Coordinate p11 = e1.getCoordinates()[segIndex1 + 1];
+            lineIntersector.computeIntersection(p00, p01, p10, p11);
+            for (int i=0; i<lineIntersector.getIntersectionNum(); i++) {
+                Coordinate node = grid.snap(lineIntersector.getIntersection(i));
+                addNode((NodedSegmentString)e0, segIndex0, p00, p01, node);
+                addNode((NodedSegmentString)e1, segIndex1, p10, p11, node);
+            }
+        }
+
+        private void addNode(NodedSegmentString string, int segIndex, Coordinate p0, Coordinate p1, Coordinate node) {
+            //Vertexes are already snapped, so they can be compared by reference
+            if (node != p0 && node != p1) {
+                string.addIntersection(node, segIndex);
+                nodesAdded++;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return false;
+        }
+    }
+
+    /**
+     * Snapped vertexes, indexed by their fixed-point grid coordinates
+     */
+    private class Grid {
+        long[] keyX = new long[1024], keyY = new long[1024];
+        Coordinate[] coords = new Coordinate[1024];
+        int[] table = new int[2048];
+        int size;
+
+        Grid() {
+            Arrays.fill(table, -1);
+        }
+
+        /**
+         * @return The snapped coordinates without consecutive repetitions, or null if they collapse into a single vertex
+         */
+        Coordinate[] snap(Coordinate[] line) {
+            Coordinate[] ret = new Coordinate[line.length];
+            int count = 0;
+            for (Coordinate c : line) {
+                Coordinate snapped = snap(c);
+                if (count == 0 || ret[count-1] != snapped) {
+                    ret[count++] = snapped;
+                }
+            }
+            return count < 2 ? null : Arrays.copyOf(ret, count);
+        }
+
+        Coordinate snap(Coordinate c) {
+            int index = indexOf(Math.round(c.x / gridSize), Math.round(c.y / gridSize)); //May grow the arrays
+            return coords[index];
+        }
+
+        int indexOf(Coordinate snapped) {
+            return indexOf(Math.round(snapped.x / gridSize), Math.round(snapped.y / gridSize));
+        }
+
+        private int indexOf(long x, long y) {
+            int mask = table.length - 1;
+            int slot = hash(x, y) & mask;
+            while (true) {
+                int v = table[slot];
+                if (v < 0) {
+                    break;
+                }
+                if (keyX[v] == x && keyY[v] == y) {
+                    return v;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            if (size == keyX.length) {
+                keyX = Arrays.copyOf(keyX, 2 * size);
+                keyY = Arrays.copyOf(keyY, 2 * size);
+                coords = Arrays.copyOf(coords, 2 * size);
+            }
+            keyX[size] = x;
+            keyY[size] = y;
+            coords[size] = new Coordinate(x * gridSize, y * gridSize);
+            table[slot] = size;
+            if (++size * 2 > table.length) {
+                rehash();
+            }
+            return size - 1;
+        }
+
+        private void rehash() {
+            table = new int[2 * table.length];
+            Arrays.fill(table, -1);
+            int mask = table.length - 1;
+            for (int v=0; v<size; v++) {
+                int slot = hash(keyX[v], keyY[v]) & mask;
+                while (table[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = v;
+            }
+        }
+
+        private int hash(long x, long y) {
+            long h = x * 31 + y;
+            h *= 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Vertex ids of a line, in a canonical direction
+     */
+    private static class Path {
+        final int[] ids;
+
+        Path(Grid grid, Coordinate[] coords) {
+            int[] ids = new int[coords.length];
+            for (int i=0; i<coords.length; i++) {
+                ids[i] = grid.indexOf(coords[i]);
+            }
+            for (int i=0, j=ids.length-1; i<j; i++, j--) {
+                if (ids[i] != ids[j]) {
+                    if (ids[i] > ids[j]) {
+                        reverse(ids);
+                    }
+                    break;
+                }
+            }
+            this.ids = ids;
+        }
+
+        private static void reverse(int[] ids) {
+            for (int i=0, j=ids.length-1; i<j; i++, j--) {
+                int tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ids);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Path && Arrays.equals(ids, ((Path)obj).ids);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.operation.union.UnaryUnionOp;
+
+/**
+ * Computes the outer shell polygon: The band of width <code>outerBuffer</code> around the outermost components, minus the streets.
+ *
+ * The straightforward way is a handful of overlay operations on the whole dataset at once, which take a long time on a single core.
+ * Instead, the outermost holes and dead ends are grouped by proximity, and every group is handled concurrently:
+ * Its items are buffered one by one, both by <code>outerBuffer</code> and by what must be cut away, and merged with cascaded unions.
+ * The groups are merged with another cascaded union, and a single overlay subtracts the streets from the band.
+ *
+ * Holes that touch themselves are cleaned up before buffering, since the overlay could fail or give a wrong result with them.
+ */
+public class OuterShell {
+    private static final int DEFAULT_GROUP_SIZE = 64;
+
+    private final ForkJoinPool pool;
+    private final int groupSize;
+
+    public OuterShell() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public OuterShell(ForkJoinPool pool) {
+        this(pool, DEFAULT_GROUP_SIZE);
+    }
+
+    /**
+     * @param groupSize Number of holes and lines handled together
+     */
+    public OuterShell(ForkJoinPool pool, int groupSize) {
+        this.pool = pool;
+        this.groupSize = groupSize;
+    }
+
+    /**
+     * Same as <code>holes.buffer(outerBuffer).union(lines.buffer(outerBuffer)).difference(holes)</code>,
+     * minus the holes buffered by <code>streetBuffer</code>, minus the lines buffered by <code>streetBuffer</code> if it is positive.
+     */
+    public Geometry compute(List<Polygon> holes, List<LineString> lines, final double streetBuffer, final double outerBuffer) {
+        List<Item> items = new ArrayList<>();
+        for (Polygon hole : holes) {
+            items.add(new Item(hole, true));
+        }
+        for (LineString line : lines) {
+            items.add(new Item(line, false));
+        }
+        if (items.isEmpty()) {
+            return Polygonizer.GEOMETRY_FACTORY.createPolygon(null, null);
+        }
+        final List<List<Item>> groups = partition(items);
+
+        //Buffer every item, and merge each group
+        final Geometry[] bands = new Geometry[groups.size()];
+        final Geometry[] cuts = new Geometry[groups.size()];
+        forEachTask(groups.size(), new Task() {
+            @Override
+            public void run(int group) {
+                List<Geometry> buffers = new ArrayList<>();
+                List<Geometry> cutBuffers = new ArrayList<>();
+                for (Item item : groups.get(group)) {
+                    Geometry geometry = item.geometry;
+                    if (item.hole && !geometry.isValid()) {
+                        geometry = geometry.buffer(0); //Components may touch themselves, which is too much for the overlay
+                    }
+                    buffers.add(geometry.buffer(outerBuffer));
+                    if (item.hole) {
+                        cutBuffers.add(streetBuffer > 0 ? geometry.buffer(streetBuffer) : geometry);
+                    } else if (streetBuffer > 0) {
+                        cutBuffers.add(geometry.buffer(streetBuffer));
+                    }
+                }
+                bands[group] = UnaryUnionOp.union(buffers, Polygonizer.GEOMETRY_FACTORY);
+                cuts[group] = UnaryUnionOp.union(cutBuffers, Polygonizer.GEOMETRY_FACTORY);
+            }
+        });
+
+        //Merge the groups
+        final Geometry[] merged = new Geometry[2];
+        forEachTask(2, new Task() {
+            @Override
+            public void run(int i) {
+                merged[i] = union(i == 0 ? bands : cuts);
+            }
+        });
+
+        //A single overlay with everything merged is much cheaper than several smaller ones that overlap
+        return merged[0].difference(merged[1]);
+    }
+
+    private static Geometry union(Geometry[] geometries) {
+        List<Geometry> nonEmpty = new ArrayList<>();
+        for (Geometry geometry : geometries) {
+            if (!geometry.isEmpty()) {
+                nonEmpty.add(geometry);
+            }
+        }
+        return UnaryUnionOp.union(nonEmpty, Polygonizer.GEOMETRY_FACTORY);
+    }
+
+    /**
+     * Sort-Tile grouping: Vertical slices by X, then groups by Y inside each slice
+     */
+    private List<List<Item>> partition(List<Item> items) {
+        int groupCount = (items.size() + groupSize - 1) / groupSize;
+        int sliceCount = (int)Math.ceil(Math.sqrt(groupCount));
+        int sliceSize = groupSize * (int)Math.ceil((double)groupCount / sliceCount);
+
+        Collections.sort(items, new Comparator<Item>() {
+            @Override
+            public int compare(Item o1, Item o2) {
+                return Double.compare(o1.x, o2.x);
+            }
+        });
+        List<List<Item>> groups = new ArrayList<>();
+        for (int sliceStart=0; sliceStart<items.size(); sliceStart+=sliceSize) {
+            List<Item> slice = new ArrayList<>(items.subList(sliceStart, Math.min(items.size(), sliceStart + sliceSize)));
+            Collections.sort(slice, new Comparator<Item>() {
+                @Override
+                public int compare(Item o1, Item o2) {
+                    return Double.compare(o1.y, o2.y);
+                }
+            });
+            for (int groupStart=0; groupStart<slice.size(); groupStart+=groupSize) {
+                groups.add(slice.subList(groupStart, Math.min(slice.size(), groupStart + groupSize)));
+            }
+        }
+        return groups;
+    }
+
+    private void forEachTask(int count, final Task task) {
+        final List<RecursiveAction> actions = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            final int index = i;
+            actions.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    task.run(index);
+                }
+            });
+        }
+        RecursiveAction all = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(actions);
+            }
+        };
+        if (ForkJoinTask.getPool() == pool) {
+            all.invoke(); //Already running in the pool, so the tasks are forked here instead of waiting for another thread
+        } else {
+            pool.invoke(all);
+        }
+    }
+
+    private interface Task {
+        void run(int index);
+    }
+
+    private static class Item {
+        final Geometry geometry;
+        final boolean hole;
+        final double x, y;
+
+        Item(Geometry geometry, boolean hole) {
+            this.geometry = geometry;
+            this.hole = hole;
+            Envelope envelope = geometry.getEnvelopeInternal();
+            this.x = (envelope.getMinX() + envelope.getMaxX()) / 2;
+            this.y = (envelope.getMinY() + envelope.getMaxY()) / 2;
+        }
+    }
+}
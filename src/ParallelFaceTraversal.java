@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Traces all faces of a planar graph using several threads.
+ *
+ * Half-edges are identified by ints, and ranked by their position in the X-sorted edge list.
+ * Threads take blocks of start edges from a shared cursor, claim a start edge atomically and then claim every edge of the face they walk.
+ *
+ * Since every half-edge belongs to exactly one face, two threads can only collide if they are walking the same face:
+ * The walk that started from the lowest-ranked edge always wins, the other one gives up as soon as it finds an edge claimed by it.
+ *
+ * Every face is reported starting from its lowest-ranked edge, which is exactly what the serial traversal does, so the cycles are identical.
+ */
+abstract class ParallelFaceTraversal {
+    private static final int BLOCK_SIZE = 256;
+
+    /** Number of half-edges */
+    protected abstract int size();
+
+    /** Half-edge at the given position of the X-sorted edge list */
+    protected abstract int edgeAt(int rank);
+
+    /** Position of the half-edge in the X-sorted edge list */
+    protected abstract int rank(int edge);
+
+    /** Next half-edge in the same face */
+    protected abstract int next(int edge);
+
+    /** Creates a cycle from the edges of a face, listed in traversal order and ending at the start edge. May reuse <code>walk</code>. */
+    protected abstract Polygonizer.Cycle createCycle(int[] walk, int length);
+
+    /**
+     * @param ordered If true, the cycles are returned in the same order as the serial traversal. Otherwise, they are returned as they are found.
+     */
+    public List<Polygonizer.Cycle> run(ForkJoinPool pool, boolean ordered) {
+        final AtomicIntegerArray owners = new AtomicIntegerArray(size()); //rank+1 of the start edge that claimed each edge, 0 if unclaimed
+        final AtomicInteger cursor = new AtomicInteger();
+
+        List<Worker> workers = new ArrayList<>();
+        for (int i=0; i<pool.getParallelism(); i++) {
+            workers.add(new Worker(owners, cursor));
+        }
+
+        List<RankedCycle> found = new ArrayList<>();
+        try {
+            for (Future<List<RankedCycle>> future : pool.invokeAll(workers)) {
+                found.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while tracing faces", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        if (ordered) {
+            Collections.sort(found, new Comparator<RankedCycle>() {
+                @Override
+                public int compare(RankedCycle o1, RankedCycle o2) {
+                    return Integer.compare(o1.rank, o2.rank);
+                }
+            });
+        }
+        List<Polygonizer.Cycle> cycles = new ArrayList<>(found.size());
+        for (RankedCycle rankedCycle : found) {
+            cycles.add(rankedCycle.cycle);
+        }
+        return cycles;
+    }
+
+    private static class RankedCycle {
+        final int rank;
+        final Polygonizer.Cycle cycle;
+        RankedCycle(int rank, Polygonizer.Cycle cycle) {
+            this.rank = rank;
+            this.cycle = cycle;
+        }
+    }
+
+    private class Worker implements Callable<List<RankedCycle>> {
+        final AtomicIntegerArray owners;
+        final AtomicInteger cursor;
+        int[] walk = new int[16];
+
+        Worker(AtomicIntegerArray owners, AtomicInteger cursor) {
+            this.owners = owners;
+            this.cursor = cursor;
+        }
+
+        @Override
+        public List<RankedCycle> call() {
+            List<RankedCycle> ret = new ArrayList<>();
+            int size = size();
+            while (true) {
+                int from = cursor.getAndAdd(BLOCK_SIZE);
+                if (from >= size) {
+                    return ret;
+                }
+                for (int rank=from; rank<Math.min(from + BLOCK_SIZE, size); rank++) {
+                    int edge = edgeAt(rank);
+                    if (owners.get(edge) != 0 || !owners.compareAndSet(edge, 0, rank+1)) {
+                        continue;
+                    }
+                    RankedCycle cycle = trace(edge, rank);
+                    if (cycle != null) {
+                        ret.add(cycle);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Walks the face starting after <code>firstEdge</code>, claiming its edges.
+         *
+         * @return The cycle, or null if another thread that started from a lower-ranked edge is walking the same face
+         */
+        private RankedCycle trace(int firstEdge, int firstRank) {
+            int claim = firstRank + 1;
+            int length = 0;
+            int minRank = firstRank;
+            int minPos = -1;
+            int currentEdge = firstEdge;
+
+            do {
+                currentEdge = next(currentEdge);
+                while (true) {
+                    int owner = owners.get(currentEdge);
+                    if (owner == claim) {
+                        if (currentEdge != firstEdge) {
+                            throw new IllegalStateException("Edge visited twice?! " + currentEdge);
+                        }
+                        break;
+                    }
+                    if (owner != 0 && owner < claim) {
+                        return null;
+                    }
+                    if (owners.compareAndSet(currentEdge, owner, claim)) {
+                        break;
+                    }
+                }
+
+                if (length == walk.length) {
+                    walk = Arrays.copyOf(walk, 2 * length);
+                }
+                int rank = rank(currentEdge);
+                if (rank <= minRank) {
+                    minRank = rank;
+                    minPos = length;
+                }
+                walk[length++] = currentEdge;
+            } while (currentEdge != firstEdge);
+
+            //Rotate the walk so that it ends at the lowest-ranked edge, as if the serial traversal had started there
+            int[] rotated = new int[length];
+            System.arraycopy(walk, minPos + 1, rotated, 0, length - minPos - 1);
+            System.arraycopy(walk, 0, rotated, length - minPos - 1, minPos + 1);
+            return new RankedCycle(minRank, createCycle(rotated, length));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+
+/**
+ * Parallel version of {@link com.google.common.collect.Iterables#transform(Iterable, Function)}.
+ *
+ * The input is still consumed lazily by the thread iterating over the output, but up to <code>window</code> items are transformed concurrently by the executor.
+ * Since no more than <code>window</code> items are ever in flight, memory usage stays bounded even for very large inputs.
+ *
+ * The results can be returned in input order, or as soon as they are ready.
+ */
+public class ParallelTransform<F, T> implements Iterable<T> {
+    private final Iterable<F> values;
+    private final Function<? super F, ? extends T> function;
+    private final Executor executor;
+    private final int window;
+    private final boolean ordered;
+
+    public ParallelTransform(Iterable<F> values, Function<? super F, ? extends T> function, Executor executor, int window, boolean ordered) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive: " + window);
+        }
+        this.values = values;
+        this.function = function;
+        this.executor = executor;
+        this.window = window;
+        this.ordered = ordered;
+    }
+
+    public static <F, T> Iterable<T> transform(Iterable<F> values, Function<? super F, ? extends T> function, Executor executor, int window, boolean ordered) {
+        return new ParallelTransform<F, T>(values, function, executor, window, ordered);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new AbstractIterator<T>() {
+            Iterator<F> valuesIt = values.iterator();
+            CompletionService<T> completionService = new ExecutorCompletionService<>(executor);
+            ArrayDeque<Future<T>> inFlight = new ArrayDeque<>();
+
+            @Override
+            protected T computeNext() {
+                while (inFlight.size() < window && valuesIt.hasNext()) {
+                    final F value = valuesIt.next();
+                    Callable<T> task = new Callable<T>() {
+                        @Override
+                        public T call() {
+                            return function.apply(value);
+                        }
+                    };
+                    if (ordered) {
+                        //Not using the completion service, which would keep every future in its queue
+                        FutureTask<T> future = new FutureTask<>(task);
+                        executor.execute(future);
+                        inFlight.add(future);
+                    } else {
+                        inFlight.add(completionService.submit(task));
+                    }
+                }
+
+                if (inFlight.isEmpty()) {
+                    return endOfData();
+                }
+
+                try {
+                    if (ordered) {
+                        return inFlight.remove().get();
+                    } else {
+                        Future<T> done = completionService.take();
+                        inFlight.remove(done);
+                        return done.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a result", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException)e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+        };
+    }
+}
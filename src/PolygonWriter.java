@@ -0,0 +1,483 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes polygons to a file or any other channel as they come, e.g. straight from {@link Polygonizer#polygons(double, double, double)},
+ * so the output never needs to be held in memory.
+ *
+ * Polygons are encoded directly into a single direct buffer, which is handed to the channel whenever it fills up.
+ * Available formats:
+ * - {@link #wkb(File)}: Little-endian WKB polygons, one after the other
+ * - {@link #geoJson(File)}: One GeoJSON Feature per line
+ * - {@link #indexed(File)}: Compact binary records followed by a packed R-tree of their envelopes, which can be queried with {@link #query(File, Envelope)}
+ */
+public abstract class PolygonWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 20;
+    //Indexed format
+    private static final int MAGIC = 'P' | 'G' << 8 | 'O' << 16 | 'N' << 24;
+    private static final int VERSION = 2;
+    private static final int FOOTER_SIZE = 20;
+    private static final int NODE_SIZE = 16;
+    private static final int LEAF_ENTRY_SIZE = 48;
+    private static final int NODE_ENTRY_SIZE = 32;
+
+    private final WritableByteChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long flushed;
+    private long count;
+
+    PolygonWriter(WritableByteChannel channel) throws IOException {
+        this.channel = channel;
+    }
+
+    public static PolygonWriter wkb(File file) throws IOException {
+        return new Wkb(open(file));
+    }
+
+    public static PolygonWriter geoJson(File file) throws IOException {
+        return new GeoJson(open(file));
+    }
+
+    public static PolygonWriter indexed(File file) throws IOException {
+        return new Indexed(open(file));
+    }
+
+    /**
+     * @param format <code>wkb</code>, <code>geojson</code> or <code>indexed</code>
+     * @throws IllegalArgumentException If the format is unknown
+     */
+    public static PolygonWriter forFormat(String format, WritableByteChannel channel) throws IOException {
+        switch (format) {
+            case "wkb":
+                return new Wkb(channel);
+            case "geojson":
+                return new GeoJson(channel);
+            case "indexed":
+                return new Indexed(channel);
+            default:
+                throw new IllegalArgumentException("Unknown output format: " + format);
+        }
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Picks the format from the file extension: <code>.wkb</code>, <code>.geojson</code> / <code>.geojsonl</code> / <code>.ndjson</code>, or indexed for anything else
+     */
+    public static PolygonWriter forFile(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(".wkb")) {
+            return wkb(file);
+        } else if (name.endsWith(".geojson") || name.endsWith(".geojsonl") || name.endsWith(".ndjson")) {
+            return geoJson(file);
+        } else {
+            return indexed(file);
+        }
+    }
+
+    public void write(Polygon polygon) throws IOException {
+        encode(polygon);
+        count++;
+    }
+
+    /**
+     * @return Number of polygons written
+     */
+    public long writeAll(Iterable<Polygon> polygons) throws IOException {
+        long before = count;
+        for (Polygon polygon : polygons) {
+            write(polygon);
+        }
+        return count - before;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    abstract void encode(Polygon polygon) throws IOException;
+
+    /**
+     * Called before closing, to write whatever comes after the polygons
+     */
+    void finish() throws IOException {
+    }
+
+    /**
+     * Makes room in the buffer for the given number of bytes
+     */
+    void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    /**
+     * @return Offset in the file of the next byte
+     */
+    long position() {
+        return flushed + buffer.position();
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static LineString[] rings(Polygon polygon) {
+        LineString[] rings = new LineString[1 + polygon.getNumInteriorRing()];
+        rings[0] = polygon.getExteriorRing();
+        for (int i=1; i<rings.length; i++) {
+            rings[i] = polygon.getInteriorRingN(i-1);
+        }
+        return rings;
+    }
+
+    /**
+     * Writes the rings as <code>[numRings][numPoints][x y]...</code>, which is also the body of a WKB polygon
+     */
+    void writeRings(Polygon polygon) throws IOException {
+        if (polygon.isEmpty()) {
+            ensure(4);
+            buffer.putInt(0);
+            return;
+        }
+        LineString[] rings = rings(polygon);
+        ensure(4);
+        buffer.putInt(rings.length);
+        for (LineString ring : rings) {
+            CoordinateSequence points = ring.getCoordinateSequence();
+            ensure(4);
+            buffer.putInt(points.size());
+            for (int i=0; i<points.size(); i++) {
+                ensure(16);
+                buffer.putDouble(points.getX(i));
+                buffer.putDouble(points.getY(i));
+            }
+        }
+    }
+
+    private static class Wkb extends PolygonWriter {
+        private static final byte LITTLE_ENDIAN = 1;
+        private static final int POLYGON = 3;
+
+        Wkb(WritableByteChannel channel) throws IOException {
+            super(channel);
+        }
+
+        @Override
+        void encode(Polygon polygon) throws IOException {
+            ensure(5);
+            buffer.put(LITTLE_ENDIAN);
+            buffer.putInt(POLYGON);
+            writeRings(polygon);
+        }
+    }
+
+    private static class GeoJson extends PolygonWriter {
+        GeoJson(WritableByteChannel channel) throws IOException {
+            super(channel);
+        }
+
+        @Override
+        void encode(Polygon polygon) throws IOException {
+            ascii("{\"type\":\"Feature\",\"properties\":{},\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[");
+            if (!polygon.isEmpty()) {
+                LineString[] rings = rings(polygon);
+                for (int r=0; r<rings.length; r++) {
+                    ascii(r == 0 ? "[" : ",[");
+                    CoordinateSequence points = rings[r].getCoordinateSequence();
+                    for (int i=0; i<points.size(); i++) {
+                        ascii(i == 0 ? "[" : ",[");
+                        ascii(Double.toString(points.getX(i)));
+                        ascii(",");
+                        ascii(Double.toString(points.getY(i)));
+                        ascii("]");
+                    }
+                    ascii("]");
+                }
+            }
+            ascii("]}}\n");
+        }
+
+        private void ascii(String text) throws IOException {
+            int length = text.length();
+            for (int start=0; start<length; start+=BUFFER_SIZE) {
+                int end = Math.min(length, start + BUFFER_SIZE);
+                ensure(end - start);
+                for (int i=start; i<end; i++) {
+                    buffer.put((byte)text.charAt(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Layout, all little-endian:
+     * - Header: <code>"PGON"</code>, version
+     * - Polygons: <code>[numRings][numPoints][x y]...</code>
+     * - Index: Packed R-tree, level by level from the leaves up
+     *   - Leaves: <code>[minX minY maxX maxY][offset][length]</code> for every polygon, sorted by the Hilbert value of its center
+     *   - Nodes: <code>[minX minY maxX maxY]</code>, the envelope of the next {@value #NODE_SIZE} entries of the level below, up to a single root
+     * - Footer: Index offset, number of polygons, <code>"PGON"</code>
+     *
+     * Only the leaf entries are kept in memory until the end, 40 bytes per polygon.
+     */
+    private static class Indexed extends PolygonWriter {
+        private double[] envelopes = new double[4 * 1024];
+        private long[] offsets = new long[1024];
+        private int size;
+
+        Indexed(WritableByteChannel channel) throws IOException {
+            super(channel);
+            ensure(8);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+        }
+
+        @Override
+        void encode(Polygon polygon) throws IOException {
+            if (size == offsets.length) {
+                offsets = Arrays.copyOf(offsets, 2 * size);
+                envelopes = Arrays.copyOf(envelopes, 8 * size);
+            }
+            Envelope envelope = polygon.getEnvelopeInternal();
+            envelopes[4*size] = envelope.getMinX();
+            envelopes[4*size+1] = envelope.getMinY();
+            envelopes[4*size+2] = envelope.getMaxX();
+            envelopes[4*size+3] = envelope.getMaxY();
+            offsets[size++] = position();
+            writeRings(polygon);
+        }
+
+        @Override
+        void finish() throws IOException {
+            long indexOffset = position();
+
+            //Leaves, sorted by the Hilbert value of their centers, with their position in the key's low bits
+            Envelope extent = new Envelope();
+            for (int i=0; i<size; i++) {
+                if (envelopes[4*i] <= envelopes[4*i+2]) {
+                    extent.expandToInclude((envelopes[4*i] + envelopes[4*i+2]) / 2, (envelopes[4*i+1] + envelopes[4*i+3]) / 2);
+                }
+            }
+            long[] keys = new long[size];
+            for (int i=0; i<size; i++) {
+                keys[i] = hilbert(extent, (envelopes[4*i] + envelopes[4*i+2]) / 2, (envelopes[4*i+1] + envelopes[4*i+3]) / 2) << 31 | i;
+            }
+            Arrays.sort(keys);
+            double[] level = new double[4 * size];
+            for (int k=0; k<size; k++) {
+                int i = (int)(keys[k] & Integer.MAX_VALUE);
+                System.arraycopy(envelopes, 4*i, level, 4*k, 4);
+                ensure(LEAF_ENTRY_SIZE);
+                for (int j=0; j<4; j++) {
+                    buffer.putDouble(envelopes[4*i+j]);
+                }
+                buffer.putLong(offsets[i]);
+                buffer.putLong((i+1 < size ? offsets[i+1] : indexOffset) - offsets[i]);
+            }
+
+            //Nodes, each one covering the next NODE_SIZE entries of the level below
+            for (int levelSize=size; levelSize>1; ) {
+                int parentSize = (levelSize + NODE_SIZE - 1) / NODE_SIZE;
+                double[] parent = new double[4 * parentSize];
+                for (int n=0; n<parentSize; n++) {
+                    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+                    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+                    for (int c=n*NODE_SIZE; c<Math.min(levelSize, (n+1)*NODE_SIZE); c++) {
+                        if (level[4*c] <= level[4*c+2]) { //Empty polygons have no envelope
+                            minX = Math.min(minX, level[4*c]);
+                            minY = Math.min(minY, level[4*c+1]);
+                            maxX = Math.max(maxX, level[4*c+2]);
+                            maxY = Math.max(maxY, level[4*c+3]);
+                        }
+                    }
+                    parent[4*n] = minX;
+                    parent[4*n+1] = minY;
+                    parent[4*n+2] = maxX;
+                    parent[4*n+3] = maxY;
+                    ensure(NODE_ENTRY_SIZE);
+                    for (int j=0; j<4; j++) {
+                        buffer.putDouble(parent[4*n+j]);
+                    }
+                }
+                level = parent;
+                levelSize = parentSize;
+            }
+            ensure(FOOTER_SIZE);
+            buffer.putLong(indexOffset);
+            buffer.putLong(size);
+            buffer.putInt(MAGIC);
+        }
+    }
+
+    /**
+     * Position of the point along a Hilbert curve over the extent, with 2^16 cells per side
+     */
+    private static long hilbert(Envelope extent, double x, double y) {
+        int n = 1 << 16;
+        int hx = extent.getWidth() > 0 ? (int)Math.max(0, Math.min(n - 1, (x - extent.getMinX()) / extent.getWidth() * (n - 1))) : 0;
+        int hy = extent.getHeight() > 0 ? (int)Math.max(0, Math.min(n - 1, (y - extent.getMinY()) / extent.getHeight() * (n - 1))) : 0;
+        long ret = 0;
+        for (int s=n/2; s>0; s/=2) {
+            int rx = (hx & s) > 0 ? 1 : 0;
+            int ry = (hy & s) > 0 ? 1 : 0;
+            ret += (long)s * s * ((3 * rx) ^ ry);
+            if (ry == 0) { //Rotate the quadrant
+                if (rx == 1) {
+                    hx = n - 1 - hx;
+                    hy = n - 1 - hy;
+                }
+                int t = hx;
+                hx = hy;
+                hy = t;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Reads the polygons from an {@link #indexed(File)} file whose envelope intersects the query, in the order they were written,
+     * walking down the R-tree so that the others are never read
+     */
+    public static List<Polygon> query(File file, Envelope query) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, 8);
+            ByteBuffer footer = read(channel, channel.size() - FOOTER_SIZE, FOOTER_SIZE);
+            long indexOffset = footer.getLong();
+            int count = (int)footer.getLong();
+            if (header.getInt() != MAGIC || footer.getInt() != MAGIC) {
+                throw new IOException(file + ": Not an indexed polygon file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": Unsupported version " + version);
+            }
+            if (count == 0 || query.isNull()) {
+                return new ArrayList<>();
+            }
+
+            //Size and position of every level, from the leaves up
+            List<Integer> levelSizes = new ArrayList<>();
+            List<Integer> levelOffsets = new ArrayList<>();
+            int indexSize = 0;
+            for (int levelSize=count; ; levelSize=(levelSize + NODE_SIZE - 1) / NODE_SIZE) {
+                levelSizes.add(levelSize);
+                levelOffsets.add(indexSize);
+                indexSize += levelSize * (indexSize == 0 ? LEAF_ENTRY_SIZE : NODE_ENTRY_SIZE);
+                if (levelSize == 1) {
+                    break;
+                }
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, indexOffset, indexSize).order(ByteOrder.LITTLE_ENDIAN);
+
+            //Walk down from the root, collecting the records of the matching leaves
+            List<long[]> records = new ArrayList<>();
+            int root = levelSizes.size() - 1;
+            ArrayDeque<int[]> pending = new ArrayDeque<>();
+            if (intersects(index, levelOffsets.get(root), query)) {
+                pending.push(new int[] {root, 0});
+            }
+            while (!pending.isEmpty()) {
+                int[] node = pending.pop();
+                int level = node[0];
+                if (level == 0) {
+                    int entry = levelOffsets.get(0) + node[1] * LEAF_ENTRY_SIZE;
+                    records.add(new long[] {index.getLong(entry + 32), index.getLong(entry + 40)});
+                    continue;
+                }
+                int childSize = level == 1 ? LEAF_ENTRY_SIZE : NODE_ENTRY_SIZE;
+                for (int c=node[1]*NODE_SIZE; c<Math.min(levelSizes.get(level-1), (node[1]+1)*NODE_SIZE); c++) {
+                    if (intersects(index, levelOffsets.get(level-1) + c * childSize, query)) {
+                        pending.push(new int[] {level-1, c});
+                    }
+                }
+            }
+
+            //Read them in file order
+            Collections.sort(records, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return Long.compare(o1[0], o2[0]);
+                }
+            });
+            List<Polygon> ret = new ArrayList<>(records.size());
+            for (long[] record : records) {
+                ret.add(readRings(read(channel, record[0], (int)record[1])));
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * @param entry Position in the index of an entry, which starts with its envelope
+     */
+    private static boolean intersects(ByteBuffer index, int entry, Envelope query) {
+        return index.getDouble(entry) <= index.getDouble(entry + 16) //Empty polygons have no envelope
+                && index.getDouble(entry) <= query.getMaxX() && index.getDouble(entry + 16) >= query.getMinX()
+                && index.getDouble(entry + 8) <= query.getMaxY() && index.getDouble(entry + 24) >= query.getMinY();
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer ret = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (ret.hasRemaining()) {
+            if (channel.read(ret, position + ret.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        ret.flip();
+        return ret;
+    }
+
+    private static Polygon readRings(ByteBuffer record) {
+        int numRings = record.getInt();
+        if (numRings == 0) {
+            return Polygonizer.GEOMETRY_FACTORY.createPolygon(null, null);
+        }
+        LinearRing[] rings = new LinearRing[numRings];
+        for (int r=0; r<numRings; r++) {
+            Coordinate[] coords = new Coordinate[record.getInt()];
+            for (int i=0; i<coords.length; i++) {
+                double x = record.getDouble();
+                coords[i] = new Coordinate(x, record.getDouble());
+            }
+            rings[r] = Polygonizer.GEOMETRY_FACTORY.createLinearRing(coords);
+        }
+        return Polygonizer.GEOMETRY_FACTORY.createPolygon(rings[0], Arrays.copyOfRange(rings, 1, numRings));
+    }
+}
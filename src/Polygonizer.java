@@ -1,13 +1,17 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import com.google.common.base.Function;
 import com.google.common.base.Predicate;
@@ -15,8 +19,10 @@ import com.google.common.base.Stopwatch;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.vividsolutions.jts.algorithm.CGAlgorithms;
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
@@ -26,34 +32,53 @@ import com.vividsolutions.jts.geom.MultiLineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.util.PolygonExtracter;
-import com.vividsolutions.jts.io.WKTReader;
-import com.vividsolutions.jts.simplify.TopologyPreservingSimplifier;
 import com.vividsolutions.jts.util.GeometricShapeFactory;
 
 public class Polygonizer implements Iterable<Polygon> {
-    private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+    static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
     private static final Polygon EMPTY_POLYGON = GEOMETRY_FACTORY.createPolygon(null, null);
 
     List<Edge> edges = new ArrayList<>();
+    Map<Coordinate, Vertex> vertexes = new HashMap<>();
+    HalfEdgeGraph graph;
+    ForkJoinPool traversalPool;
+    ForkJoinPool bufferPool;
+    Executor matcherExecutor;
+    int matcherWindow;
+    int matcherStripSize;
+    boolean reduced;
+    Faces faces; //Snapshot of the last traversal, until the graph changes
+    private final Coordinate vertexKey = new Coordinate(); //Reused to look vertexes up without allocating
 
-    public Polygonizer(List<LineString> segments) {
-        Map<Coordinate, Vertex> vertexes = new HashMap<>();
+    public Polygonizer(Iterable<LineString> segments) {
+        this(segments, false);
+    }
+
+    /**
+     * Nodes the segments and snaps them to a grid with a {@link Noder} before building the graph, so they don't need to be noded beforehand
+     */
+    public Polygonizer(Iterable<LineString> segments, double gridSize, boolean compact) {
+        this(new Noder(gridSize).node(segments), compact);
+    }
+
+    /**
+     * @param compact If true, the graph is stored in a {@link HalfEdgeGraph} (primitive arrays) instead of Vertex/Edge objects.
+     */
+    public Polygonizer(Iterable<LineString> segments, boolean compact) {
+        long start = Metrics.start();
+        if (compact) {
+            this.graph = new HalfEdgeGraph(segments);
+            Metrics.stage("graph", start);
+            Metrics.count("graph.vertexes", graph.vertexCount());
+            Metrics.count("graph.halfEdges", graph.halfEdgeCount());
+            return;
+        }
 
         //Create a graph
         for (LineString segment : segments) {
-            Coordinate c1 = segment.getCoordinateN(0);
-            Coordinate c2 = segment.getCoordinateN(segment.getNumPoints()-1);
-
-            Vertex v1 = vertexes.get(c1);
-            if (v1 == null) {
-                v1 = new Vertex(c1);
-                vertexes.put(c1, v1);
-            }
-            Vertex v2 = vertexes.get(c2);
-            if (v2 == null) {
-                v2 = new Vertex(c2);
-                vertexes.put(c2, v2);
-            }
+            CoordinateSequence points = segment.getCoordinateSequence();
+            Vertex v1 = vertex(points, 0);
+            Vertex v2 = vertex(points, points.size()-1);
 
             Edge edge = new Edge(v1, v2, segment);
             this.edges.add(edge);
@@ -76,44 +101,430 @@ public class Polygonizer implements Iterable<Polygon> {
         Collections.sort(this.edges, new Comparator<Edge>() {
             @Override
             public int compare(Edge o1, Edge o2) {
-                return Double.compare(o1.path.getEnvelopeInternal().getMinX(), o2.path.getEnvelopeInternal().getMinX());
+                return Double.compare(o1.minX(), o2.minX());
+            }
+        });
+        renumber(0);
+        Metrics.stage("graph", start);
+        Metrics.count("graph.vertexes", vertexes.size());
+        Metrics.count("graph.halfEdges", edges.size());
+    }
+
+    private Vertex vertex(CoordinateSequence points, int i) {
+        vertexKey.x = points.getX(i);
+        vertexKey.y = points.getY(i);
+        Vertex v = vertexes.get(vertexKey);
+        if (v == null) {
+            Coordinate coord = points.getCoordinate(i);
+            v = new Vertex(coord);
+            vertexes.put(coord, v);
+        }
+        return v;
+    }
+
+    private void renumber(int from) {
+        for (int i=from; i<edges.size(); i++) {
+            edges.get(i).id = i;
+        }
+    }
+
+    /**
+     * Shrinks the graph before the traversal, in O(n):
+     * - Dangling trees are pruned leaf by leaf, and their segments are kept as the dead ends of the face they lie in
+     * - Chains of degree-2 vertexes are contracted into single edges
+     *
+     * The faces are the same, but their dead ends don't need to be walked and unwound.
+     * Components without any face are kept as they are. Incremental updates are not supported afterwards.
+     */
+    public void reduce() {
+        checkObjectGraph();
+        long start = Metrics.start();
+        reduced = true;
+        faces = null;
+
+        //Prune leaves until only cycles are left
+        Deque<Vertex> leaves = new ArrayDeque<>();
+        for (Vertex v : vertexes.values()) {
+            v.degree = v.edges.size();
+            if (v.degree == 1) {
+                leaves.add(v);
+            }
+        }
+        List<Vertex> roots = new ArrayList<>();
+        while (!leaves.isEmpty()) {
+            Vertex leaf = leaves.poll();
+            for (Edge edge : leaf.edges) {
+                if (!edge.removed) {
+                    edge.removed = edge.reverse.removed = true;
+                    leaf.degree--;
+                    if (--edge.v2.degree == 1) {
+                        leaves.add(edge.v2);
+                    } else if (edge.v2.degree == 0) {
+                        roots.add(edge.v2); //Last vertex of a tree
+                    }
+                }
+            }
+        }
+
+        //Trees are a face of their own, which the traversal handles just fine. Their degree stays 0, so they aren't contracted either.
+        for (Vertex root : roots) {
+            Deque<Vertex> pending = new ArrayDeque<>();
+            pending.push(root);
+            while (!pending.isEmpty()) {
+                Vertex v = pending.pop();
+                for (Edge edge : v.edges) {
+                    if (edge.removed) {
+                        edge.removed = edge.reverse.removed = false;
+                        pending.push(edge.v2);
+                    }
+                }
+            }
+        }
+
+        //Each dangling tree lies in the face of the next remaining edge around its vertex
+        for (Vertex v : vertexes.values()) {
+            if (v.degree == 0 || v.degree == v.edges.size()) {
+                continue;
+            }
+            int first = 0;
+            while (v.edges.get(first).removed) {
+                first++;
+            }
+            List<Edge> dangling = new ArrayList<>();
+            for (int i=1; i<=v.edges.size(); i++) {
+                Edge edge = v.edges.get((first + i) % v.edges.size());
+                if (edge.removed) {
+                    dangling.add(edge);
+                } else {
+                    for (Edge tree : dangling) {
+                        addDanglingTree(edge, tree);
+                    }
+                    dangling.clear();
+                }
+            }
+        }
+
+        //Contract chains, starting from the other vertexes, and then the rings made only of degree-2 vertexes
+        for (Vertex v : vertexes.values()) {
+            if (v.degree != 2) {
+                for (Edge edge : v.edges) {
+                    if (!edge.removed && edge.replacement == null) {
+                        contractChain(edge);
+                    }
+                }
+            }
+        }
+        for (Vertex v : vertexes.values()) {
+            if (v.degree == 2) {
+                for (Edge edge : v.edges) {
+                    if (!edge.removed && edge.replacement == null) {
+                        contractChain(edge);
+                    }
+                }
+            }
+        }
+
+        //Rebuild the stars and the X-sorted edge list
+        this.edges.clear();
+        Iterator<Vertex> vertexIt = vertexes.values().iterator();
+        while (vertexIt.hasNext()) {
+            Vertex v = vertexIt.next();
+            List<Edge> star = new ArrayList<>(v.edges.size());
+            for (Edge edge : v.edges) {
+                if (!edge.removed) {
+                    star.add(edge.replacement != null ? edge.replacement : edge);
+                }
+            }
+            if (star.isEmpty()) {
+                vertexIt.remove();
+                continue;
+            }
+            v.edges = star;
+            reindex(v, 0);
+            this.edges.addAll(star);
+        }
+        Collections.sort(this.edges, new Comparator<Edge>() {
+            @Override
+            public int compare(Edge o1, Edge o2) {
+                return Double.compare(o1.minX(), o2.minX());
+            }
+        });
+        renumber(0);
+        Metrics.stage("reduce", start);
+    }
+
+    /**
+     * Adds the segments of the pruned tree starting at <code>tree</code> to the dead ends of <code>edge</code>
+     */
+    private static void addDanglingTree(Edge edge, Edge tree) {
+        Deque<Edge> pending = new ArrayDeque<>();
+        pending.push(tree);
+        while (!pending.isEmpty()) {
+            Edge current = pending.pop();
+            edge.addDeadEnd(current.segment);
+            for (Edge child : current.v2.edges) {
+                if (child != current.reverse) {
+                    pending.push(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the chain of edges starting at <code>first</code>, up to the next vertex without degree 2, with a single edge
+     */
+    private static void contractChain(Edge first) {
+        List<Edge> chain = new ArrayList<>();
+        chain.add(first);
+        Edge last = first;
+        while (last.v2.degree == 2 && last.v2 != first.v1) {
+            List<Edge> star = last.v2.edges;
+            Edge next = null;
+            for (Edge edge : star) {
+                if (!edge.removed && edge != last.reverse) {
+                    next = edge;
+                }
+            }
+            chain.add(next);
+            last = next;
+        }
+        if (chain.size() == 1) {
+            return;
+        }
+
+        List<Coordinate> coords = new ArrayList<>();
+        coords.add(first.coordinate(0));
+        for (Edge edge : chain) {
+            for (int i=1; i<edge.numPoints(); i++) {
+                coords.add(edge.coordinate(i));
+            }
+        }
+        Edge contracted = new Edge(first.v1, last.v2, GEOMETRY_FACTORY.createLineString(coords.toArray(new Coordinate[coords.size()])));
+        for (Edge edge : chain) {
+            edge.removed = edge.reverse.removed = true;
+            if (edge.deadEnds != null) {
+                for (LineString deadEnd : edge.deadEnds) {
+                    contracted.addDeadEnd(deadEnd);
+                }
+            }
+            if (edge.reverse.deadEnds != null) {
+                for (LineString deadEnd : edge.reverse.deadEnds) {
+                    contracted.reverse.addDeadEnd(deadEnd);
+                }
+            }
+        }
+        first.removed = last.reverse.removed = false;
+        first.replacement = contracted;
+        last.reverse.replacement = contracted.reverse;
+    }
+
+    public void simplify(double tolerance) {
+        simplify(tolerance, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Simplifies the path of every edge once, with a {@link NetworkSimplifier}, so that the faces on both sides share the same simplified boundary.
+     * Only the vertexes inside the paths are removed, and a path is left as it was if simplifying it would make it cross another one
+     * or change the order of the edges around its vertexes, so the faces are still the same.
+     *
+     * Best after {@link #reduce()}, which turns the chains between junctions into single edges.
+     * Dead ends pruned by {@link #reduce()} are not simplified, but the paths keep the vertexes they hang from and must not cross them,
+     * so they stay in their faces. Incremental updates are not supported afterwards.
+     */
+    public void simplify(double tolerance, ForkJoinPool pool) {
+        checkObjectGraph();
+        long start = Metrics.start();
+        reduced = true;
+        faces = null;
+
+        List<Edge> forward = new ArrayList<>();
+        List<Coordinate[]> paths = new ArrayList<>();
+        List<Coordinate[]> deadEnds = new ArrayList<>();
+        for (Edge edge : edges) {
+            if (!edge.reversed) {
+                edge.simplifiedId = forward.size();
+                forward.add(edge);
+                paths.add(edge.segment.getCoordinates());
+            }
+            if (edge.deadEnds != null) {
+                for (LineString deadEnd : edge.deadEnds) {
+                    deadEnds.add(deadEnd.getCoordinates());
+                }
+            }
+        }
+        NetworkSimplifier simplifier = new NetworkSimplifier(paths, deadEnds);
+        simplifier.simplify(tolerance, pool);
+
+        //Put back paths until nothing crosses and no star changes its order
+        int reverted = 0;
+        boolean changed = true;
+        while (changed) {
+            int crossings = simplifier.revertCrossings();
+            reverted += crossings;
+            changed = crossings > 0;
+            for (Vertex v : vertexes.values()) {
+                if (!isStarOrdered(v, simplifier)) {
+                    for (Edge edge : v.edges) {
+                        if (simplifier.revert((edge.reversed ? edge.reverse : edge).simplifiedId)) {
+                            reverted++;
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+
+        //Replace the simplified edges, keeping their place in the stars
+        int simplified = 0;
+        for (int i=0; i<forward.size(); i++) {
+            if (simplifier.isSimplified(i)) {
+                Edge edge = forward.get(i);
+                Edge replacement = new Edge(edge.v1, edge.v2, GEOMETRY_FACTORY.createLineString(simplifier.get(i)));
+                if (edge.deadEnds != null) {
+                    for (LineString deadEnd : edge.deadEnds) {
+                        replacement.addDeadEnd(deadEnd);
+                    }
+                }
+                if (edge.reverse.deadEnds != null) {
+                    for (LineString deadEnd : edge.reverse.deadEnds) {
+                        replacement.reverse.addDeadEnd(deadEnd);
+                    }
+                }
+                edge.replacement = replacement;
+                edge.reverse.replacement = replacement.reverse;
+                simplified++;
+            }
+        }
+        this.edges.clear();
+        for (Vertex v : vertexes.values()) {
+            for (int i=0; i<v.edges.size(); i++) {
+                Edge edge = v.edges.get(i);
+                if (edge.replacement != null) {
+                    v.edges.set(i, edge.replacement);
+                }
+            }
+            reindex(v, 0);
+            this.edges.addAll(v.edges);
+        }
+        Collections.sort(this.edges, new Comparator<Edge>() {
+            @Override
+            public int compare(Edge o1, Edge o2) {
+                return Double.compare(o1.minX(), o2.minX());
             }
         });
+        renumber(0);
+        Metrics.stage("simplify", start);
+        Metrics.count("simplify.edges", simplified);
+        Metrics.count("simplify.reverted", reverted);
+    }
+
+    /**
+     * @return True if the edges around the vertex, with their simplified paths, still turn around it in the same order
+     */
+    private static boolean isStarOrdered(Vertex v, NetworkSimplifier simplifier) {
+        int size = v.edges.size();
+        if (size < 2) {
+            return true;
+        }
+        double[] angles = new double[size];
+        for (int i=0; i<size; i++) {
+            Edge edge = v.edges.get(i);
+            Coordinate[] path = simplifier.get((edge.reversed ? edge.reverse : edge).simplifiedId);
+            Coordinate c1 = edge.reversed ? path[path.length-1] : path[0];
+            Coordinate c2 = edge.reversed ? path[path.length-2] : path[1];
+            angles[i] = Math.atan2(c2.y-c1.y, c2.x-c1.x);
+        }
+        //Sorted up to a rotation: Angles only wrap around once
+        int wraps = 0;
+        for (int i=0; i<size; i++) {
+            if (angles[(i+1) % size] <= angles[i]) {
+                wraps++;
+            }
+        }
+        return wraps == 1;
+    }
+
+    private static Edge next(Edge edge) {
+        Vertex vertex = edge.v2;
+        return vertex.edges.get((edge.index_v2 + 1) % vertex.edges.size());
     }
 
     private Cycle visit(Edge firstEdge) {
-        LinkedList<Edge> ring = new LinkedList<>();
-        List<LineString> deadEnds = new ArrayList<>();
+        List<Edge> walk = new ArrayList<>();
         Edge currentEdge = firstEdge;
 
-        while (true) {
-            Vertex currentVertex = currentEdge.v2;
-            currentEdge = currentVertex.edges.get((currentEdge.index_v2 + 1) % currentVertex.edges.size());
+        do {
+            currentEdge = next(currentEdge);
             if (currentEdge.visited) {
                 throw new IllegalStateException("Edge visited twice?! " + currentEdge);
             }
             currentEdge.visited = true;
+            walk.add(currentEdge);
+        } while (currentEdge != firstEdge);
+
+        return createCycle(walk);
+    }
+
+    /**
+     * Splits the edges of a face, listed in traversal order, into its ring and its dead-ends
+     */
+    private Cycle createCycle(List<Edge> walk) {
+        LinkedList<Edge> ring = new LinkedList<>();
+        List<LineString> deadEnds = new ArrayList<>();
 
-            if (!ring.isEmpty() && ring.getLast().v1 == currentEdge.v2) {
-                deadEnds.add(ring.removeLast().path);
+        for (Edge currentEdge : walk) {
+            if (currentEdge.deadEnds != null) {
+                deadEnds.addAll(currentEdge.deadEnds);
+            }
+            //Going back along the same edge -- Comparing vertexes instead would also drop the faces between parallel edges
+            if (!ring.isEmpty() && ring.getLast() == currentEdge.reverse) {
+                deadEnds.add(ring.removeLast().segment);
             } else {
                 ring.add(currentEdge);
             }
-
-            if (currentEdge == firstEdge) {
-                break;
-            }
         }
 
-        while (ring.size() >= 2 && ring.getFirst().v2 == ring.getLast().v1) {
-            deadEnds.add(ring.removeFirst().path);
+        while (ring.size() >= 2 && ring.getFirst() == ring.getLast().reverse) {
+            deadEnds.add(ring.removeFirst().segment);
             ring.removeLast();
         }
 
-        return new Cycle(createPolygon(ring), deadEnds);
+        //Measures of the shell, from the ones of its edges
+        Envelope envelope = new Envelope();
+        double area = 0;
+        int points = ring.isEmpty() ? 0 : 1;
+        Coordinate origin = ring.isEmpty() ? null : ring.getFirst().v1.coord;
+        for (Edge edge : ring) {
+            area += edge.area + ringArea(origin, edge.v1.coord, edge.v2.coord);
+            envelope.expandToInclude(edge.segment.getEnvelopeInternal());
+            points += edge.numPoints() - 1;
+        }
+
+        LineString[] shellSegments = new LineString[ring.size()];
+        boolean[] shellReversed = new boolean[ring.size()];
+        int i = 0;
+        for (Edge edge : ring) {
+            shellSegments[i] = edge.segment;
+            shellReversed[i++] = edge.reversed;
+        }
+        Cycle cycle = new Cycle(new Ring(shellSegments, shellReversed), -area / 2, envelope, points, deadEnds);
+        for (Edge edge : walk) {
+            edge.face = cycle;
+        }
+        return cycle;
     }
 
     public Iterable<Cycle> cycles() {
+        return Metrics.traversal(traverse());
+    }
+
+    private Iterable<Cycle> traverse() {
+        if (traversalPool != null) {
+            return cycles(traversalPool, true);
+        }
+        if (graph != null) {
+            return graph;
+        }
         return new Iterable<Polygonizer.Cycle>() {
             @Override
             public Iterator<Cycle> iterator() {
@@ -140,8 +551,373 @@ public class Polygonizer implements Iterable<Polygon> {
         };
     }
 
+    /**
+     * Traces the faces using several threads.
+     *
+     * @param ordered If true, the cycles are returned in the same order as {@link #cycles()}, which is required by {@link #fix_topology()}.
+     *                Otherwise, they are returned in the order they are found.
+     */
+    public Iterable<Cycle> cycles(final ForkJoinPool pool, final boolean ordered) {
+        return new Iterable<Polygonizer.Cycle>() {
+            @Override
+            public Iterator<Cycle> iterator() {
+                ParallelFaceTraversal traversal = graph != null ? graph.parallelTraversal() : new ParallelFaceTraversal() {
+                    @Override
+                    protected int size() {
+                        return edges.size();
+                    }
+                    @Override
+                    protected int edgeAt(int rank) {
+                        return rank;
+                    }
+                    @Override
+                    protected int rank(int edge) {
+                        return edge;
+                    }
+                    @Override
+                    protected int next(int edge) {
+                        return Polygonizer.next(edges.get(edge)).id;
+                    }
+                    @Override
+                    protected Cycle createCycle(int[] walk, int length) {
+                        List<Edge> edgeWalk = new ArrayList<>(length);
+                        for (int i=0; i<length; i++) {
+                            edgeWalk.add(edges.get(walk[i]));
+                        }
+                        return Polygonizer.this.createCycle(edgeWalk);
+                    }
+                };
+                return traversal.run(pool, ordered).iterator();
+            }
+        };
+    }
+
+    public Iterable<Cycle> cycles(final int threads, final boolean ordered) {
+        return new Iterable<Polygonizer.Cycle>() {
+            @Override
+            public Iterator<Cycle> iterator() {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    return cycles(pool, ordered).iterator();
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes {@link #cycles()} -- And therefore all the polygon methods -- trace the faces in parallel using the given pool.
+     * The output is the same as the serial traversal. Set to null to go back to the serial traversal.
+     */
+    public void setTraversalPool(ForkJoinPool traversalPool) {
+        this.traversalPool = traversalPool;
+    }
+
+    /**
+     * Makes the polygon methods compute the outer shell -- The only buffering that runs in parallel -- in the given pool,
+     * instead of the common pool. Set to null to go back to the common pool.
+     */
+    public void setBufferPool(ForkJoinPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    /**
+     * Makes {@link #fix_topology()} -- And therefore all the polygon methods -- match holes to shells with the multi-core {@link BoundingBoxMatcher},
+     * sweeping strips of <code>stripSize</code> cycles, at most <code>window</code> at a time. Set the executor to null to go back to the serial sweep.
+     */
+    public void setMatcherExecutor(Executor executor, int window, int stripSize) {
+        this.matcherExecutor = executor;
+        this.matcherWindow = window;
+        this.matcherStripSize = stripSize;
+    }
+
+    /**
+     * Traces all faces, and splits them between the ones that go through any of the given vertexes and the ones that don't.
+     * Used by {@link TiledPolygonizer} to find the faces that may continue in other tiles.
+     *
+     * @param inside If not null, receives the faces that don't touch the vertexes, in traversal order
+     * @param touching If not null, receives the faces that touch the vertexes, in traversal order
+     * @param touchingSegments If not null, receives the segments of the faces that touch the vertexes, in X order
+     */
+    void splitFaces(Set<Coordinate> vertexes, List<Cycle> inside, List<Cycle> touching, List<LineString> touchingSegments) {
+        checkUnreduced();
+        List<Cycle> faces = Lists.newArrayList(cycles());
+
+        Set<Cycle> touchingFaces = Sets.newIdentityHashSet();
+        for (Coordinate coord : vertexes) {
+            Vertex vertex = this.vertexes.get(coord);
+            if (vertex != null) {
+                for (Edge edge : vertex.edges) {
+                    touchingFaces.add(edge.face);
+                }
+            }
+        }
+
+        for (Cycle face : faces) {
+            List<Cycle> target = touchingFaces.contains(face) ? touching : inside;
+            if (target != null) {
+                target.add(face);
+            }
+        }
+        if (touchingSegments != null) {
+            for (Edge edge : edges) {
+                if (!edge.reversed && (touchingFaces.contains(edge.face) || touchingFaces.contains(edge.reverse.face))) {
+                    touchingSegments.add(edge.segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a segment to the graph, and re-traces only the faces it touches.
+     *
+     * The delta is relative to the faces found by the last traversal ({@link #cycles()} or a previous update):
+     * The face the segment was inserted into is removed, and the faces it was split into are added.
+     */
+    public Delta addSegment(LineString segment) {
+        checkUnreduced();
+        faces = null;
+        CoordinateSequence points = segment.getCoordinateSequence();
+        Vertex v1 = vertex(points, 0);
+        Vertex v2 = vertex(points, points.size()-1);
+        Edge edge = new Edge(v1, v2, segment);
+
+        List<Edge> changed = new ArrayList<>();
+        insertIntoStar(edge, changed);
+        insertIntoStar(edge.reverse, changed);
+        changed.add(edge);
+        changed.add(edge.reverse);
+
+        int pos = upperBound(edge.minX());
+        edges.add(pos, edge.reverse);
+        edges.add(pos, edge);
+        renumber(pos);
+
+        return retrace(changed, Collections.<Edge>emptySet());
+    }
+
+    /**
+     * Removes a segment from the graph, and re-traces only the faces it touched.
+     *
+     * The delta is relative to the faces found by the last traversal ({@link #cycles()} or a previous update):
+     * The faces on both sides of the segment are removed, and the face(s) that replace them are added.
+     *
+     * @throws IllegalArgumentException If the segment isn't in the graph
+     */
+    public Delta removeSegment(LineString segment) {
+        checkUnreduced();
+        faces = null;
+        Edge edge = findEdge(segment);
+        if (edge == null) {
+            throw new IllegalArgumentException("Segment not found: " + segment);
+        }
+
+        List<Edge> changed = new ArrayList<>();
+        removeFromStar(edge, changed);
+        removeFromStar(edge.reverse, changed);
+
+        //Both directions have the same X, so they are always next to each other
+        int pos = Math.min(edge.id, edge.reverse.id);
+        edges.subList(pos, pos+2).clear();
+        renumber(pos);
+
+        Set<Edge> removed = Sets.newIdentityHashSet();
+        removed.add(edge);
+        removed.add(edge.reverse);
+        return retrace(changed, removed);
+    }
+
+    private void checkObjectGraph() {
+        if (graph != null) {
+            throw new UnsupportedOperationException("Not supported by the compact graph");
+        }
+    }
+
+    private void checkUnreduced() {
+        checkObjectGraph();
+        if (reduced) {
+            throw new UnsupportedOperationException("Not supported after reducing or simplifying the graph");
+        }
+    }
+
+    private Edge findEdge(LineString segment) {
+        Vertex v1 = vertexes.get(segment.getCoordinateN(0));
+        if (v1 == null) {
+            return null;
+        }
+        for (Edge edge : v1.edges) {
+            if (!edge.reversed && edge.segment == segment) {
+                return edge;
+            }
+        }
+        for (Edge edge : v1.edges) {
+            if (edge.hasPath(segment)) {
+                return edge;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts the edge in the star of its start vertex, keeping it sorted (And stable, as in the constructor).
+     * The edge arriving at the vertex just before it now continues through it, so it is added to <code>changed</code>.
+     */
+    private static void insertIntoStar(Edge edge, List<Edge> changed) {
+        List<Edge> star = edge.v1.edges;
+        int pos = star.size();
+        while (pos > 0 && star.get(pos-1).compareTo(edge) > 0) {
+            pos--;
+        }
+        star.add(pos, edge);
+        reindex(edge.v1, pos);
+        if (star.size() > 1) {
+            changed.add(star.get((pos + star.size() - 1) % star.size()).reverse);
+        }
+    }
+
+    /**
+     * Removes the edge from the star of its start vertex.
+     * The edge arriving at the vertex just before it now continues somewhere else, so it is added to <code>changed</code>.
+     */
+    private void removeFromStar(Edge edge, List<Edge> changed) {
+        List<Edge> star = edge.v1.edges;
+        int pos = edge.index_v1;
+        star.remove(pos);
+        reindex(edge.v1, pos);
+        if (star.isEmpty()) {
+            vertexes.remove(edge.v1.coord);
+        } else {
+            changed.add(star.get((pos + star.size() - 1) % star.size()).reverse);
+        }
+    }
+
+    private static void reindex(Vertex v, int from) {
+        for (int i=from; i<v.edges.size(); i++) {
+            Edge e = v.edges.get(i);
+            e.index_v1 = i;
+            e.reverse.index_v2 = i;
+        }
+    }
+
+    /** First position in <code>edges</code> with minX > x */
+    private int upperBound(double x) {
+        int lo = 0, hi = edges.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edges.get(mid).minX() <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Re-traces the faces going through the changed edges.
+     *
+     * Every face whose edges changed goes through one of them, so the faces of the changed edges are the only ones to remove,
+     * and the faces traced from them are the only ones to add.
+     * Like in the parallel traversal, each face starts from its lowest-ranked edge, so they are identical to a full traversal.
+     */
+    private Delta retrace(List<Edge> changed, Set<Edge> removedEdges) {
+        Set<Cycle> removed = Sets.newIdentityHashSet();
+        for (Edge edge : changed) {
+            if (edge.face != null) {
+                removed.add(edge.face);
+            }
+        }
+        for (Edge edge : removedEdges) {
+            if (edge.face != null) {
+                removed.add(edge.face);
+            }
+        }
+
+        Set<Cycle> added = Sets.newIdentityHashSet();
+        for (Edge firstEdge : changed) {
+            if (removedEdges.contains(firstEdge) || added.contains(firstEdge.face)) {
+                continue;
+            }
+            List<Edge> walk = new ArrayList<>();
+            int minPos = 0;
+            Edge currentEdge = firstEdge;
+            do {
+                currentEdge = next(currentEdge);
+                if (!walk.isEmpty() && currentEdge.id < walk.get(minPos).id) {
+                    minPos = walk.size();
+                }
+                walk.add(currentEdge);
+            } while (currentEdge != firstEdge);
+
+            //Rotate the walk so that it ends at the lowest-ranked edge
+            Collections.rotate(walk, walk.size() - minPos - 1);
+            added.add(createCycle(walk));
+        }
+        return new Delta(new ArrayList<>(removed), new ArrayList<>(added));
+    }
+
+    /**
+     * Immutable snapshot of {@link #fix_topology()}, computed once and kept until the graph changes.
+     * Unlike the traversal, it can be shared by several threads.
+     * Only callers of this method pay for it: {@link #get()} and {@link #iterator()} compute new polygons every time,
+     * while <code>faces().get(...)</code> caches them.
+     */
+    public synchronized Faces faces() {
+        if (faces == null) {
+            faces = new Faces(fix_topology());
+        }
+        return faces;
+    }
+
+    /**
+     * Finds the face containing a point, see {@link FaceLocator}. Same as <code>faces().locator()</code>.
+     */
+    public FaceLocator locator() {
+        return faces().locator();
+    }
+
     //Transforms external shells into holes to internal shells
     public Iterable<Cycle> fix_topology() {
+        if (matcherExecutor != null) {
+            return fix_topology(cycles(), matcherExecutor, matcherWindow, matcherStripSize);
+        }
+        List<Cycle> cycles = Lists.newArrayList(cycles());
+        long start = Metrics.start();
+        Iterable<Cycle> ret = fix_topology(new NestingForest(cycles));
+        Metrics.stage("holes", start);
+        return ret;
+    }
+
+    /**
+     * Same as {@link #fix_topology()}, assigning every external cycle to its immediate container in the nesting forest.
+     * The internal faces are returned in their original order, followed by the outermost shell.
+     */
+    static Iterable<Cycle> fix_topology(NestingForest forest) {
+        Cycle outermost = new Cycle();
+        List<Cycle> ret = new ArrayList<>();
+        for (Cycle cycle : forest.cycles()) {
+            if (!cycle.external) {
+                ret.add(cycle);
+                continue;
+            }
+            Cycle container = forest.container(cycle);
+            if (container == null) {
+                container = outermost;
+            }
+            if (cycle.points > 0) {
+                container.holes.add(cycle.shell());
+            }
+            container.lines.addAll(cycle.lines);
+        }
+        ret.add(outermost);
+        return ret;
+    }
+
+    /**
+     * Same as {@link #fix_topology()}, for any stream of cycles sorted by Xmin, sweeping them with the {@link BoundingBoxMatcher}, multi-core if the executor is not null
+     */
+    static Iterable<Cycle> fix_topology(Iterable<Cycle> faces, Executor executor, int window, int stripSize) {
         //Append an Outermost shell
         Iterable<Cycle> cycles = Iterables.concat(
                 new Iterable<Cycle>() {
@@ -149,39 +925,48 @@ public class Polygonizer implements Iterable<Polygon> {
                         return Iterators.singletonIterator(new Cycle());
                     }
                 },
-                cycles());
+                faces);
 
         //Detect collisions
-        BoundingBoxMatcher<Cycle> collisions = new BoundingBoxMatcher<>(cycles, new Function<Cycle, Envelope>() {
+        Function<Cycle, Envelope> extractEnvelope = new Function<Cycle, Envelope>() {
             @Override
             public Envelope apply(Cycle cycle) {
                 return cycle.envelope;
             }
-        });
+        };
+        //Must be ordered, so that shells are only retired after all their holes are matched
+        BoundingBoxMatcher<Cycle> collisions = executor == null 
+                ? new BoundingBoxMatcher<>(cycles, extractEnvelope) 
+                : new BoundingBoxMatcher<>(cycles, extractEnvelope, executor, window, stripSize, true);
         
         Iterable<Cycle> punchedHoles = Iterables.transform(collisions, new Function<BoundingBoxMatcher<Cycle>.Match, Cycle>() {
+            ContainmentCache containment = new ContainmentCache();
+
             @Override
             public Cycle apply(BoundingBoxMatcher<Cycle>.Match match) {
+                if (match.matches == null) {
+                    containment.evict(match.value);
+                    if (match.value.isOutermost()) { //The outermost shell is the last one retired
+                        Metrics.count("containment.tests", containment.tests());
+                        Metrics.count("containment.exact", containment.exactTests());
+                    }
+                }
                 if (match.matches == null && !match.value.external) {
                     return match.value;
                 }
                 if (match.value.external && match.matches != null) {
+                    //Shells containing the cycle are nested, so its immediate container is the smallest one, as in the NestingForest
                     Cycle selectedContainer = null;
                     for (Cycle containerCandidate : match.matches) {
                         if (containerCandidate.external) continue;
                         if (!containerCandidate.envelope.contains(match.value.envelope)) continue;
-                        if (containerCandidate.shell!=null) {
-                            if (!match.value.shell.isEmpty()) {
-                                if (!containerCandidate.shell.contains(match.value.shell.getBoundary())) continue;
-                            } else {
-                                if (!containerCandidate.shell.contains(match.value.lines.get(0))) continue;
-                            }
-                        }
-                        //if (selectedContainer!=null && selectedContainer.shell!=null && !selectedContainer.shell.contains(containerCandidate.shell.getBoundary())) continue;
+                        if (selectedContainer != null && !selectedContainer.isOutermost()
+                                && (containerCandidate.isOutermost() || Math.abs(containerCandidate.signedArea) >= Math.abs(selectedContainer.signedArea))) continue;
+                        if (!containerCandidate.isOutermost() && !containment.contains(containerCandidate, match.value)) continue;
                         selectedContainer = containerCandidate;
                     }
-                    if (!match.value.shell.isEmpty()) {
-                        selectedContainer.holes.add(match.value.shell);
+                    if (match.value.points > 0) {
+                        selectedContainer.holes.add(match.value.shell());
                     }
                     selectedContainer.lines.addAll(match.value.lines);
                 }
@@ -189,55 +974,95 @@ public class Polygonizer implements Iterable<Polygon> {
             }
         });
         
-        return Iterables.filter(punchedHoles, Cycle.class);
+        return Metrics.timed("holes", Iterables.filter(punchedHoles, Cycle.class));
     }
 
     public Iterable<Polygon> polygons(double streetBuffer, double outerBuffer, double innerBuffer) {
-        Iterable<Geometry> geometries = Iterables.transform(fix_topology(), new Function<Cycle, Geometry>() {
+        return bufferedPolygons(fix_topology(), streetBuffer, outerBuffer, innerBuffer, bufferPool);
+    }
+
+    /**
+     * Same as {@link #polygons(double, double, double)}, for cycles that already went through {@link #fix_topology()}
+     */
+    static Iterable<Polygon> bufferedPolygons(Iterable<Cycle> cycles, double streetBuffer, double outerBuffer, double innerBuffer) {
+        return bufferedPolygons(cycles, streetBuffer, outerBuffer, innerBuffer, null);
+    }
+
+    /**
+     * @param pool Pool of the outer shell, or null for the common pool
+     */
+    static Iterable<Polygon> bufferedPolygons(Iterable<Cycle> cycles, double streetBuffer, double outerBuffer, double innerBuffer, ForkJoinPool pool) {
+        return extractPolygons(Iterables.transform(cycles, bufferFunction(streetBuffer, outerBuffer, innerBuffer, pool)));
+    }
+
+    /**
+     * Same as {@link #polygons(double, double, double)}, but the buffering of each cycle runs in the executor.
+     *
+     * @param window Maximum number of cycles being buffered at the same time
+     * @param ordered If true, the polygons are returned in the same order as the serial version. Otherwise, they are returned as soon as they are ready.
+     */
+    public Iterable<Polygon> polygons(double streetBuffer, double outerBuffer, double innerBuffer, Executor executor, int window, boolean ordered) {
+        return extractPolygons(ParallelTransform.transform(fix_topology(), bufferFunction(streetBuffer, outerBuffer, innerBuffer, bufferPool), executor, window, ordered));
+    }
+
+    private static Function<Cycle, Geometry> bufferFunction(final double streetBuffer, final double outerBuffer, final double innerBuffer, final ForkJoinPool pool) {
+        final Function<Cycle, Geometry> buffer = new Function<Cycle, Geometry>() {
             @Override
             public Geometry apply(Cycle cycle) {
-                MultiLineString lines = createMultiLineString(cycle.lines);
-
-                if (cycle.shell == null) { //Outer shell
+                if (cycle.isOutermost()) { //Outer shell
                     if (outerBuffer <= 0) {
                         return EMPTY_POLYGON;
                     }
-                    Geometry holes = GEOMETRY_FACTORY.createMultiPolygon(cycle.holes.toArray(new Polygon[cycle.holes.size()]));
-                    
-                    Geometry outer = holes.buffer(outerBuffer).union(lines.buffer(outerBuffer)).difference(holes);
-                    Geometry inner = holes;
-                    if (streetBuffer != 0) {
-                        inner = inner.buffer(streetBuffer);
-                    }
-                    if (streetBuffer > 0) {
-                        inner = inner.union(lines.buffer(streetBuffer));
-                    }
-                    return outer.difference(inner);
-                    
+                    return (pool != null ? new OuterShell(pool) : new OuterShell()).compute(cycle.holes, cycle.lines, streetBuffer, outerBuffer);
                 } else {
-                    Geometry ret = cycle.shell;
+                    Geometry ret = cycle.shell();
                     if (!cycle.holes.isEmpty()) {
                         LinearRing[] rings = new LinearRing[cycle.holes.size()];
                         for (int i=0; i<rings.length; i++) {
                             rings[i] = (LinearRing)cycle.holes.get(i).getExteriorRing();
                         }
-                        ret = GEOMETRY_FACTORY.createPolygon((LinearRing)cycle.shell.getExteriorRing(), rings);
+                        ret = GEOMETRY_FACTORY.createPolygon((LinearRing)cycle.shell().getExteriorRing(), rings);
                     }       
                     
                     if (streetBuffer != 0) {
+                        if (streetBuffer > 0 && Prechecks.vanishes(ret, streetBuffer)) {
+                            Prechecks.thinFace(3 + (innerBuffer > 0 ? 2 : 0));
+                            return EMPTY_POLYGON;
+                        }
                         ret = ret.buffer(-streetBuffer);
 
                         if (streetBuffer > 0) {
-                            ret = ret.difference(lines.buffer(streetBuffer));
+                            List<LineString> lines = ret.isEmpty() ? Collections.<LineString>emptyList() : Prechecks.near(cycle.lines, ret.getEnvelopeInternal(), streetBuffer);
+                            if (lines.isEmpty()) {
+                                Prechecks.distantLines();
+                            } else {
+                                ret = ret.difference(createMultiLineString(lines).buffer(streetBuffer));
+                            }
                         }
                     }                    
-                    if (innerBuffer > 0) { //TODO: Optimize out for small geometries
-                        ret = ret.difference(ret.buffer(-innerBuffer));
+                    if (innerBuffer > 0) {
+                        if (Prechecks.vanishes(ret, innerBuffer)) {
+                            Prechecks.emptyInnerRing();
+                        } else {
+                            ret = ret.difference(ret.buffer(-innerBuffer));
+                        }
                     }
                     return ret;
                 }
             }
-        });
+        };
+        return new Function<Cycle, Geometry>() {
+            @Override
+            public Geometry apply(Cycle cycle) {
+                long start = Metrics.start();
+                Geometry ret = buffer.apply(cycle);
+                Metrics.buffered(cycle, start);
+                return ret;
+            }
+        };
+    }
+
+    private static Iterable<Polygon> extractPolygons(Iterable<Geometry> geometries) {
         Iterable<Polygon> polygons = Iterables.concat(Iterables.transform(geometries, new Function<Geometry, Iterable<Polygon>>() {
             @Override
             @SuppressWarnings("unchecked")
@@ -273,23 +1098,33 @@ public class Polygonizer implements Iterable<Polygon> {
     }
 
 
-    private Polygon createPolygon(List<Edge> ring) {
-        if (ring.isEmpty()) {
-            return GEOMETRY_FACTORY.createPolygon(null, null); 
+    /**
+     * Twice the signed area between the path and its first point, counter-clockwise positive.
+     * The same as around its last point, so it is only negated for the reverse path.
+     */
+    static double pathArea(LineString path) {
+        CoordinateSequence points = path.getCoordinateSequence();
+        double x0 = points.getX(0), y0 = points.getY(0);
+        double ret = 0;
+        for (int i=1; i<points.size()-1; i++) {
+            ret += (points.getX(i) - x0) * (points.getY(i+1) - y0) - (points.getX(i+1) - x0) * (points.getY(i) - y0);
         }
+        return ret;
+    }
 
-        List<Coordinate> coords = new ArrayList<>();
-        for (Edge edge : ring) {
-            for (int i=0; i<edge.path.getNumPoints()-1; i++) {
-                coords.add(edge.path.getCoordinateN(i));
-            }
-        }
-        coords.add(coords.get(0));
-        LinearRing linearRing = GEOMETRY_FACTORY.createLinearRing(coords.toArray(new Coordinate[coords.size()]));
-        return GEOMETRY_FACTORY.createPolygon(linearRing, new LinearRing[0]);
+    /**
+     * What must be added to the {@link #pathArea(LineString)} of a path from <code>a</code> to <code>b</code> to measure it around <code>origin</code> instead.
+     * Summed along a ring, that's twice its signed area, without the loss of precision of using the absolute coordinates.
+     */
+    static double ringArea(Coordinate origin, Coordinate a, Coordinate b) {
+        return ringArea(origin.x, origin.y, a.x, a.y, b.x, b.y);
     }
 
-    private MultiLineString createMultiLineString(List<LineString> lines) {
+    static double ringArea(double originX, double originY, double ax, double ay, double bx, double by) {
+        return (ax - originX) * (by - ay) - (ay - originY) * (bx - ax);
+    }
+
+    private static MultiLineString createMultiLineString(List<LineString> lines) {
         return GEOMETRY_FACTORY.createMultiLineString(lines.toArray(new LineString[lines.size()]));
     }
 
@@ -297,6 +1132,7 @@ public class Polygonizer implements Iterable<Polygon> {
     private static class Vertex implements Comparable<Vertex>{
         Coordinate coord;
         List<Edge> edges;
+        int degree; //Edges left, while reducing the graph
 
         public Vertex(Coordinate center) { 
             this.coord = center;
@@ -316,25 +1152,81 @@ public class Polygonizer implements Iterable<Polygon> {
         Vertex v1;
         Vertex v2;
         int index_v1, index_v2;
+        int id; //Position in the X-sorted edge list
+        Cycle face; //Face found by the last traversal
         final double sortValue;
-        final LineString path;
+        final LineString segment; //Shared by both directions
         final Edge reverse;
+        final boolean reversed; //True if the path is the segment read backwards
+        final double area; //See pathArea
         boolean visited;
+        boolean removed; //Pruned or contracted, while reducing the graph
+        Edge replacement; //Contracted or simplified edge starting with this one
+        int simplifiedId; //Position in the NetworkSimplifier, while simplifying the graph
+        List<LineString> deadEnds; //Pruned segments lying in the face of this edge
+        double deadEndsMinX = Double.POSITIVE_INFINITY;
 
-        public Edge(Vertex v1, Vertex v2, LineString path) {
-            this(v1, v2, path, null);
+        public Edge(Vertex v1, Vertex v2, LineString segment) {
+            this(v1, v2, segment, null);
         }
 
-        private Edge(Vertex v1, Vertex v2, LineString path, Edge reverse) {
+        private Edge(Vertex v1, Vertex v2, LineString segment, Edge reverse) {
             this.v1 = v1;
             this.v2 = v2;
-            this.path = path;
+            this.segment = segment;
             this.visited = false;
-            this.reverse = reverse != null ? reverse : new Edge(v2, v1, (LineString)path.reverse(), this);
+            this.reversed = reverse != null;
+            this.area = reverse != null ? -reverse.area : pathArea(segment);
+            this.reverse = reverse != null ? reverse : new Edge(v2, v1, segment, this);
+
+            this.sortValue = Math.atan2(y(1)-y(0), x(1)-x(0));
+        }
+
+        int numPoints() {
+            return segment.getNumPoints();
+        }
+
+        /**
+         * @return The i-th point of the path, in the direction of this edge
+         */
+        Coordinate coordinate(int i) {
+            CoordinateSequence points = segment.getCoordinateSequence();
+            return points.getCoordinate(reversed ? points.size() - 1 - i : i);
+        }
+
+        double x(int i) {
+            CoordinateSequence points = segment.getCoordinateSequence();
+            return points.getX(reversed ? points.size() - 1 - i : i);
+        }
+
+        double y(int i) {
+            CoordinateSequence points = segment.getCoordinateSequence();
+            return points.getY(reversed ? points.size() - 1 - i : i);
+        }
+
+        boolean hasPath(LineString line) {
+            CoordinateSequence points = line.getCoordinateSequence();
+            if (points.size() != numPoints()) {
+                return false;
+            }
+            for (int i=0; i<points.size(); i++) {
+                if (x(i) != points.getX(i) || y(i) != points.getY(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        double minX() {
+            return Math.min(segment.getEnvelopeInternal().getMinX(), deadEndsMinX);
+        }
 
-            Coordinate c1 = path.getCoordinateN(0);
-            Coordinate c2 = path.getCoordinateN(1);
-            this.sortValue = Math.atan2(c2.y-c1.y, c2.x-c1.x);
+        void addDeadEnd(LineString deadEnd) {
+            if (deadEnds == null) {
+                deadEnds = new ArrayList<>();
+            }
+            deadEnds.add(deadEnd);
+            deadEndsMinX = Math.min(deadEndsMinX, deadEnd.getEnvelopeInternal().getMinX());
         }
 
         @Override
@@ -348,33 +1240,155 @@ public class Polygonizer implements Iterable<Polygon> {
         }
     }
 
+    /**
+     * Faces changed by an incremental update
+     */
+    public static class Delta {
+        public final List<Cycle> removed;
+        public final List<Cycle> added;
+
+        public Delta(List<Cycle> removed, List<Cycle> added) {
+            this.removed = removed;
+            this.added = added;
+        }
+    }
+
+    /**
+     * Segments of the shell of a traced face, only turned into coordinates when they are needed.
+     * It doesn't refer to the graph, so a cycle doesn't keep the graph that traced it in memory.
+     */
+    static final class Ring {
+        private final LineString[] segments;
+        private final boolean[] reversed; //True if the segment is read backwards
+
+        Ring(LineString[] segments, boolean[] reversed) {
+            this.segments = segments;
+            this.reversed = reversed;
+        }
+
+        Coordinate[] coordinates() {
+            if (segments.length == 0) {
+                return new Coordinate[0];
+            }
+
+            int size = 1;
+            for (LineString segment : segments) {
+                size += segment.getNumPoints() - 1;
+            }
+            Coordinate[] ret = new Coordinate[size];
+            int pos = 0;
+            for (int i=0; i<segments.length; i++) {
+                CoordinateSequence points = segments[i].getCoordinateSequence();
+                int last = points.size() - 1;
+                for (int j=0; j<last; j++) {
+                    ret[pos++] = points.getCoordinate(reversed[i] ? last - j : j);
+                }
+            }
+            ret[pos] = ret[0];
+            return ret;
+        }
+    }
+
+    /**
+     * A face, as traced by the traversal.
+     *
+     * The area, envelope and size of the shell are added up from the edges while tracing, so the shell is only created when it is needed.
+     */
     public static class Cycle {
-        public final Polygon shell;
         public final List<LineString> lines;
         public final List<Polygon> holes;
         public final boolean external;
         public final Envelope envelope;
+        public final double signedArea; //Of the shell, positive if clockwise -- As in CGAlgorithms.signedArea
+        public final int points; //Of the shell, 0 if it is empty
+        private final Ring ring;
+        private volatile Polygon shell;
 
         private Cycle() {
+            this.ring = null;
             this.shell = null;
             this.lines = new ArrayList<>();
             this.holes = new ArrayList<>();
             this.external = false;
             this.envelope = new Envelope(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            this.signedArea = 0;
+            this.points = 0;
+        }
+
+        private Cycle(Cycle cycle) {
+            this.ring = cycle.ring;
+            this.shell = cycle.shell;
+            this.lines = Collections.unmodifiableList(new ArrayList<>(cycle.lines));
+            this.holes = Collections.unmodifiableList(new ArrayList<>(cycle.holes));
+            this.external = cycle.external;
+            this.envelope = new Envelope(cycle.envelope);
+            this.signedArea = cycle.signedArea;
+            this.points = cycle.points;
         }
 
         public Cycle(Polygon shell, List<LineString> lines) {
+            this(null, shell, CGAlgorithms.signedArea(shell.getExteriorRing().getCoordinates()), shell.getEnvelopeInternal(), shell.getNumPoints(), lines);
+        }
+
+        /**
+         * @param envelope Envelope of the shell, which is kept
+         */
+        Cycle(Ring ring, double signedArea, Envelope envelope, int points, List<LineString> lines) {
+            this(ring, null, signedArea, envelope, points, lines);
+        }
+
+        private Cycle(Ring ring, Polygon shell, double signedArea, Envelope envelope, int points, List<LineString> lines) {
+            this.ring = ring;
             this.shell = shell;
             this.lines = lines;
             this.holes = new ArrayList<>();
-            this.external = CGAlgorithms.signedArea(shell.getExteriorRing().getCoordinates()) <= 0;
-            this.envelope = new Envelope(shell.getEnvelopeInternal());
+            this.signedArea = signedArea;
+            this.points = points;
+            this.external = signedArea <= 0;
+            this.envelope = new Envelope(envelope);
             if (external) {
                 for (LineString line : lines) {
                     this.envelope.expandToInclude(line.getEnvelopeInternal());
                 }
             }
         }
+
+        /**
+         * @return The shell, created on first use, or null for the outermost cycle
+         */
+        public Polygon shell() {
+            Polygon ret = shell;
+            if (ret == null && ring != null) {
+                ret = shell = createShell(ring.coordinates());
+            }
+            return ret;
+        }
+
+        public boolean isOutermost() {
+            return ring == null && shell == null;
+        }
+
+        /**
+         * @return The coordinates of the shell, without creating it if it wasn't yet
+         */
+        Coordinate[] coordinates() {
+            Polygon ret = shell;
+            return ret != null ? ret.getExteriorRing().getCoordinates() : ring.coordinates();
+        }
+
+        private static Polygon createShell(Coordinate[] coords) {
+            if (coords.length == 0) {
+                return GEOMETRY_FACTORY.createPolygon(null, null);
+            }
+            return GEOMETRY_FACTORY.createPolygon(GEOMETRY_FACTORY.createLinearRing(coords), new LinearRing[0]);
+        }
+
+        /**
+         * @return An unmodifiable copy, for {@link Faces}
+         */
+        Cycle freeze() {
+            return new Cycle(this);
+        }
     }
 
 
@@ -400,34 +1414,41 @@ public class Polygonizer implements Iterable<Polygon> {
     }
 
     public static void main(String[] args) throws Exception {
-        List<LineString> segments = new ArrayList<>();
-        try (BufferedReader in = new BufferedReader(new FileReader("src/street_segments.wkt"))) {
-
-            while (in.ready()) {
-                String line = in.readLine();
-                segments.add((LineString)new WKTReader().read(line));
-            }
-        }
+        List<LineString> segments = Lists.newArrayList(new SegmentReader(new File("src/street_segments.wkt")));
         //segments.addAll(circles(0,0,meters(1000),1));
         //segments.add(GEOMETRY_FACTORY.createLineString(new Coordinate[]{new Coordinate(0,meters(-200)), new Coordinate(0,meters(200))}));
         System.out.println(GEOMETRY_FACTORY.createMultiLineString(segments.toArray(new LineString[segments.size()])));
 
         System.out.println("Data read: " + segments.size() + " segments");
+        Metrics.Recorder metrics = new Metrics.Recorder();
+        Metrics.setListener(metrics);
         Stopwatch timer = Stopwatch.createStarted();
 
         Polygonizer poligonizer = new Polygonizer(segments);
+        //Simplified once per shared boundary, so neighbouring polygons still fit together
+        poligonizer.reduce();
+        poligonizer.simplify(meters(10));
         System.out.println("Graph prepared - " + timer);
 
         //List<Polygon> polygons = poligonizer.get();
         //List<Polygon> polygons = poligonizer.get(meters(10), 0, 0);
         //List<Polygon> polygons = poligonizer.get(meters(-10), 0, 0);
         //List<Polygon> polygons = poligonizer.get(meters(2), 0, meters(50));
+        if (args.length > 0) {
+            //Stream the polygons to a file instead of printing them
+            try (PolygonWriter writer = PolygonWriter.forFile(new File(args[0]))) {
+                writer.writeAll(poligonizer.polygons(meters(10), meters(500), 0));
+                System.out.println(writer.count() + " polygons written to " + args[0] + " - " + timer);
+            }
+            System.out.println(metrics.report());
+            return;
+        }
         List<Polygon> polygons = poligonizer.get(meters(10), meters(500), 0);
 
         System.out.println(polygons.size() + " polygons found - " + timer);
+        System.out.println(metrics.report());
 
         MultiPolygon allPolygons = GEOMETRY_FACTORY.createMultiPolygon(polygons.toArray(new Polygon[polygons.size()]));
-        allPolygons = (MultiPolygon) TopologyPreservingSimplifier.simplify(allPolygons,  meters(10));
         System.out.println(allPolygons);
     }
 }
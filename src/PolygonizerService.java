@@ -0,0 +1,439 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+import com.google.common.base.Throwables;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.io.InStream;
+import com.vividsolutions.jts.io.ParseException;
+import com.vividsolutions.jts.io.WKBReader;
+
+/**
+ * Runs the polygonizer as a local service, over HTTP or stdin/stdout.
+ *
+ * A request is a batch of segments, and the response is its polygons. Parameters:
+ * - <code>streetBuffer</code>, <code>outerBuffer</code>, <code>innerBuffer</code>: As in {@link Polygonizer#polygons(double, double, double)}, 0 by default
+ * - <code>grid</code>: If set, the segments are noded and snapped to a grid of this size first, see {@link Noder}
+ * - <code>input</code>: <code>wkt</code> (WKT, or anything with WKT LINESTRINGs in it, like Solr JSON) or <code>wkb</code> (LineStrings or MultiLineStrings, one after the other)
+ * - <code>output</code>: <code>geojson</code> (default), <code>wkb</code> or <code>indexed</code>, see {@link PolygonWriter}
+ *
+ * Over HTTP, POST the segments to <code>/polygons?streetBuffer=...</code>. The server only listens on the loopback interface.
+ * Each request runs on a virtual thread when the JVM has them (Java 21 or later), or on a pooled thread otherwise.
+ * Only <code>computeThreads</code> requests are polygonized at a time, the others wait for their turn,
+ * and requests beyond <code>maxPending</code> are rejected right away with 429.
+ * The polygonization runs in a pool of <code>computeThreads</code> threads owned by the service, outer shells included,
+ * so that is also the number of cores it uses.
+ * Polygons are spooled before being sent, so a slow client never holds a compute slot, and failures are reported with 500:
+ * In memory up to 8MB, and then to a temporary file, which is sent chunked.
+ * Over stdin/stdout, they are streamed as soon as they are buffered.
+ *
+ * Usage:
+ * - <code>java PolygonizerService port=8080 [computeThreads=N] [maxPending=N]</code>
+ * - <code>java PolygonizerService stdin [streetBuffer=...] [input=...] [output=...] &lt; segments &gt; polygons</code>
+ */
+public class PolygonizerService {
+    private static final long DEFAULT_MAX_BODY_SIZE = 256 << 20;
+    private static final int SPOOL_MEMORY = 8 << 20;
+
+    private final Semaphore compute;
+    private final ForkJoinPool computePool;
+    private final Semaphore pending;
+    private final long maxBodySize;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    public PolygonizerService() {
+        this(Runtime.getRuntime().availableProcessors(), 16 * Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BODY_SIZE);
+    }
+
+    /**
+     * @param computeThreads Maximum number of requests being polygonized at the same time
+     * @param maxPending Maximum number of requests being handled or waiting, including the ones being polygonized
+     * @param maxBodySize Maximum size of a request, in bytes
+     */
+    public PolygonizerService(int computeThreads, int maxPending, long maxBodySize) {
+        this.compute = new Semaphore(computeThreads, true);
+        this.computePool = new ForkJoinPool(computeThreads);
+        this.pending = new Semaphore(maxPending);
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Starts the HTTP server on the loopback interface
+     *
+     * @param port Port to listen to, or 0 for any free port
+     * @return The address the server is listening to
+     */
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        executor = requestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/polygons", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handlePolygons(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return server.getAddress();
+    }
+
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdown();
+            server = null;
+        }
+    }
+
+    /**
+     * A new virtual thread per request if available, a cached thread pool otherwise
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handlePolygons(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendError(exchange, 405, "Use POST");
+            return;
+        }
+        if (!pending.tryAcquire()) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "Too many requests");
+            return;
+        }
+        try {
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (!params.containsKey("input") && "application/octet-stream".equals(exchange.getRequestHeaders().getFirst("Content-Type"))) {
+                params.put("input", "wkb");
+            }
+            Request request;
+            List<LineString> segments;
+            try {
+                request = new Request(params);
+                ByteBuffer body = readBody(exchange.getRequestBody());
+                if (body == null) {
+                    sendError(exchange, 413, "Request larger than " + maxBodySize + " bytes");
+                    return;
+                }
+                segments = request.parse(body);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+                return;
+            }
+
+            Spool response = new Spool(SPOOL_MEMORY);
+            try {
+                Throwable failure = null;
+                compute.acquireUninterruptibly();
+                try {
+                    compute(request, segments, response);
+                } catch (RuntimeException | IOException | OutOfMemoryError e) {
+                    failure = e;
+                } finally {
+                    compute.release();
+                }
+                if (failure != null) {
+                    sendError(exchange, 500, "Polygonization failed: " + failure.getMessage());
+                    return;
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", request.contentType());
+                //Chunked if it was spooled to a file, -1 if empty, since 0 means chunked
+                exchange.sendResponseHeaders(200, !response.inMemory() ? 0 : response.size() > 0 ? response.size() : -1);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    response.writeTo(out);
+                }
+            } finally {
+                response.delete();
+            }
+        } finally {
+            pending.release();
+        }
+    }
+
+    /**
+     * Polygonizes in the compute pool, where the outer shells run too
+     */
+    private void compute(final Request request, final List<LineString> segments, final Spool response) throws IOException {
+        try {
+            computePool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    request.write(segments, Channels.newChannel(response), computePool);
+                    return null;
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted", e);
+        }
+    }
+
+    /**
+     * @return The body, or null if it is larger than the limit
+     */
+    private ByteBuffer readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        long size = ByteStreams.copy(ByteStreams.limit(in, maxBodySize + 1), ret);
+        if (size > maxBodySize) {
+            return null;
+        }
+        return ByteBuffer.wrap(ret.toByteArray());
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        ByteStreams.copy(exchange.getRequestBody(), ByteStreams.nullOutputStream()); //Otherwise the client may get a reset before reading the response
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> ret = new HashMap<>();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                if (eq > 0) {
+                    ret.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"), URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Parameters of a request
+     */
+    private static class Request {
+        final double streetBuffer, outerBuffer, innerBuffer;
+        final Double grid;
+        final String input, output;
+
+        Request(Map<String, String> params) {
+            this.streetBuffer = number(params, "streetBuffer");
+            this.outerBuffer = number(params, "outerBuffer");
+            this.innerBuffer = number(params, "innerBuffer");
+            this.grid = params.containsKey("grid") ? number(params, "grid") : null;
+            this.input = params.containsKey("input") ? params.get("input") : "wkt";
+            this.output = params.containsKey("output") ? params.get("output") : "geojson";
+            if (grid != null && !(grid > 0)) {
+                throw new IllegalArgumentException("Invalid grid: " + grid);
+            }
+            if (!input.equals("wkt") && !input.equals("wkb")) {
+                throw new IllegalArgumentException("Unknown input format: " + input);
+            }
+            if (!output.equals("geojson") && !output.equals("wkb") && !output.equals("indexed")) {
+                throw new IllegalArgumentException("Unknown output format: " + output);
+            }
+        }
+
+        private static double number(Map<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return Double.parseDouble(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid " + name + ": " + value);
+            }
+        }
+
+        String contentType() {
+            return output.equals("geojson") ? "application/geo+json-seq" : "application/octet-stream";
+        }
+
+        List<LineString> parse(ByteBuffer body) {
+            if (input.equals("wkt")) {
+                return SegmentReader.parse(body);
+            }
+            List<LineString> ret = new ArrayList<>();
+            WKBReader reader = new WKBReader(Polygonizer.GEOMETRY_FACTORY);
+            ByteBufferInStream in = new ByteBufferInStream(body);
+            try {
+                while (body.hasRemaining()) {
+                    Geometry geometry = reader.read(in);
+                    for (int i=0; i<geometry.getNumGeometries(); i++) {
+                        if (!(geometry.getGeometryN(i) instanceof LineString)) {
+                            throw new IllegalArgumentException("Not a LineString: " + geometry.getGeometryN(i).getGeometryType());
+                        }
+                        ret.add((LineString)geometry.getGeometryN(i));
+                    }
+                }
+            } catch (IOException | ParseException e) {
+                throw new IllegalArgumentException("Malformed WKB: " + e.getMessage(), e);
+            }
+            return ret;
+        }
+
+        /**
+         * Polygonizes the segments, streaming the polygons to the channel
+         *
+         * @param pool Pool of the outer shells, or null for the common pool
+         */
+        void write(List<LineString> segments, WritableByteChannel channel, ForkJoinPool pool) throws IOException {
+            Polygonizer polygonizer = grid != null ? new Polygonizer(segments, grid, false) : new Polygonizer(segments);
+            polygonizer.setBufferPool(pool);
+            try (PolygonWriter writer = PolygonWriter.forFormat(output, channel)) {
+                writer.writeAll(polygonizer.polygons(streetBuffer, outerBuffer, innerBuffer));
+            }
+        }
+    }
+
+    /**
+     * Response kept in memory up to a limit, and in a temporary file beyond it
+     */
+    private static class Spool extends OutputStream {
+        final int memoryLimit;
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        File file;
+        OutputStream fileOut;
+        long size;
+
+        Spool(int memoryLimit) {
+            this.memoryLimit = memoryLimit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte)b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (memory != null && memory.size() + len > memoryLimit) {
+                file = File.createTempFile("polygons", ".spool");
+                fileOut = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+                memory.writeTo(fileOut);
+                memory = null;
+            }
+            if (memory != null) {
+                memory.write(b, off, len);
+            } else {
+                fileOut.write(b, off, len);
+            }
+            size += len;
+        }
+
+        boolean inMemory() {
+            return memory != null;
+        }
+
+        long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (fileOut != null) {
+                fileOut.close();
+            }
+        }
+
+        /**
+         * Copies the response, after it has been closed
+         */
+        void writeTo(OutputStream out) throws IOException {
+            if (memory != null) {
+                memory.writeTo(out);
+            } else {
+                Files.copy(file.toPath(), out);
+            }
+        }
+
+        void delete() throws IOException {
+            close();
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    private static class ByteBufferInStream implements InStream {
+        final ByteBuffer buffer;
+
+        ByteBufferInStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void read(byte[] buf) throws IOException {
+            if (buffer.remaining() < buf.length) {
+                throw new IOException("Unexpected end of WKB");
+            }
+            buffer.get(buf);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = new HashMap<>();
+        boolean stdin = false;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq > 0) {
+                params.put(arg.substring(0, eq), arg.substring(eq + 1));
+            } else if (arg.equals("stdin")) {
+                stdin = true;
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+
+        if (stdin) {
+            Request request = new Request(params);
+            List<LineString> segments = request.parse(ByteBuffer.wrap(ByteStreams.toByteArray(System.in)));
+            request.write(segments, Channels.newChannel(System.out), null);
+            return;
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int computeThreads = params.containsKey("computeThreads") ? Integer.parseInt(params.get("computeThreads")) : cores;
+        int maxPending = params.containsKey("maxPending") ? Integer.parseInt(params.get("maxPending")) : 16 * cores;
+        int port = params.containsKey("port") ? Integer.parseInt(params.get("port")) : 8080;
+        PolygonizerService service = new PolygonizerService(computeThreads, maxPending, DEFAULT_MAX_BODY_SIZE);
+        System.err.println("Listening on http://" + service.start(port) + "/polygons");
+    }
+}
@@ -0,0 +1,77 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * Cheap bounds used to skip buffer and overlay operations whose result is known in advance.
+ *
+ * The radius of the largest circle inside a polygon is at most half the smaller side of its envelope, and at most <code>sqrt(area / PI)</code>.
+ * Below that, a negative buffer is certainly empty.
+ *
+ * Every check and skipped operation is counted through {@link Metrics}, as <code>prechecks.*</code>.
+ */
+public class Prechecks {
+
+    /**
+     * Upper bound for the radius of the largest circle inside the geometry
+     */
+    public static double maxInscribedRadius(Geometry geometry) {
+        Metrics.count("prechecks.checks", 1);
+        Envelope envelope = geometry.getEnvelopeInternal();
+        double radius = Math.min(envelope.getWidth(), envelope.getHeight()) / 2;
+        if (radius > 0) {
+            radius = Math.min(radius, Math.sqrt(geometry.getArea() / Math.PI));
+        }
+        return radius;
+    }
+
+    /**
+     * @return Whether <code>geometry.buffer(-distance)</code> is certainly empty
+     */
+    public static boolean vanishes(Geometry geometry, double distance) {
+        return geometry.isEmpty() || maxInscribedRadius(geometry) < distance;
+    }
+
+    /**
+     * @return The lines whose buffer by <code>distance</code> may touch the envelope
+     */
+    public static List<LineString> near(List<LineString> lines, Envelope envelope, double distance) {
+        Metrics.count("prechecks.checks", 1);
+        Envelope expanded = new Envelope(envelope);
+        expanded.expandBy(distance);
+        List<LineString> ret = new ArrayList<>(lines.size());
+        for (LineString line : lines) {
+            if (expanded.intersects(line.getEnvelopeInternal())) {
+                ret.add(line);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * A face too thin to survive the negative buffer: Skipped the buffer, and maybe the lines buffer and the difference
+     */
+    static void thinFace(int operations) {
+        Metrics.count("prechecks.thinFaces", 1);
+        Metrics.count("prechecks.skipped", operations);
+    }
+
+    /**
+     * No dead end reaches the face: Skipped the lines buffer and the difference
+     */
+    static void distantLines() {
+        Metrics.count("prechecks.distantLines", 1);
+        Metrics.count("prechecks.skipped", 2);
+    }
+
+    /**
+     * The inner ring is the whole face: Skipped the negative buffer and the difference
+     */
+    static void emptyInnerRing() {
+        Metrics.count("prechecks.emptyInnerRings", 1);
+        Metrics.count("prechecks.skipped", 2);
+    }
+}
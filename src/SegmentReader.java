@@ -0,0 +1,435 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import com.vividsolutions.jts.io.WKTWriter;
+
+/**
+ * Reads LINESTRINGs from a text file, as fast as the disk allows.
+ *
+ * Instead of going through the general-purpose WKT parser, the file is memory-mapped and scanned for <code>LINESTRING (x y, x y, ...)</code> tokens.
+ * MULTILINESTRINGs are split into their parts, and M values are dropped.
+ * Other geometries (POINT, POLYGON and their MULTI versions) are rejected, instead of being lost.
+ * Keywords are case-insensitive, like in WKTReader.
+ * Anything else is ignored, so the same reader works for:
+ * - One WKT geometry per line, like <code>street_segments.wkt</code>
+ * - Solr responses with WKT fields, like the <code>response.docs[].geom</code> in <code>streets_sp.json</code>
+ *
+ * The file is split in chunks which are parsed in parallel, but the segments are still returned lazily and in file order,
+ * with at most <code>window</code> chunks in memory.
+ * A LINESTRING belongs to the chunk where its keyword starts, even if its coordinates continue in the next chunk.
+ */
+public class SegmentReader implements Iterable<LineString> {
+    private static final int DEFAULT_CHUNK_SIZE = 8 << 20;
+    private static final byte[] LINESTRING = "LINESTRING".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MULTILINESTRING = "MULTILINESTRING".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[][] UNSUPPORTED = {
+        "POINT".getBytes(StandardCharsets.US_ASCII),
+        "MULTIPOINT".getBytes(StandardCharsets.US_ASCII),
+        "POLYGON".getBytes(StandardCharsets.US_ASCII),
+        "MULTIPOLYGON".getBytes(StandardCharsets.US_ASCII),
+    };
+    private static final double[] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+        }
+    }
+
+    private final File file;
+    private final Executor executor;
+    private final int window;
+    private final int chunkSize;
+
+    public SegmentReader(File file) {
+        this(file, ForkJoinPool.commonPool(), 2 * ForkJoinPool.commonPool().getParallelism(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param window Maximum number of chunks being parsed or waiting to be consumed
+     * @param chunkSize Approximate size of the chunks, in bytes
+     */
+    public SegmentReader(File file, Executor executor, int window, int chunkSize) {
+        this.file = file;
+        this.executor = executor;
+        this.window = window;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public Iterator<LineString> iterator() {
+        final long size = file.length();
+        List<Long> chunkStarts = new ArrayList<>();
+        for (long start=0; start<size; start+=chunkSize) {
+            chunkStarts.add(start);
+        }
+
+        Iterable<List<LineString>> chunks = ParallelTransform.transform(chunkStarts, new Function<Long, List<LineString>>() {
+            @Override
+            public List<LineString> apply(Long start) {
+                try {
+                    return readChunk(start, Math.min(size, start + chunkSize));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(file + ": " + e.getMessage(), e);
+                }
+            }
+        }, executor, window, true);
+        return Iterables.concat(chunks).iterator();
+    }
+
+    /**
+     * Parses all LINESTRINGs in a buffer that is already in memory, e.g. the body of a request
+     */
+    public static List<LineString> parse(ByteBuffer text) {
+        Scanner scanner = new Scanner(text, 0);
+        List<LineString> ret = new ArrayList<>();
+        scanner.scan(0, text.limit(), ret);
+        return ret;
+    }
+
+    /**
+     * Parses the LINESTRINGs whose keyword starts at [start, end)
+     */
+    private List<LineString> readChunk(long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            //Map one byte before the chunk, to check what precedes the keyword, and as much as possible after, to finish the last LINESTRING.
+            //Mapping is lazy, so this costs nothing until the bytes are actually read.
+            long mapStart = Math.max(0, start - 1);
+            long mapSize = Math.min(channel.size() - mapStart, Integer.MAX_VALUE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapSize);
+
+            Scanner scanner = new Scanner(buffer, mapStart);
+            List<LineString> ret = new ArrayList<>();
+            scanner.scan((int)(start - mapStart), (int)(end - mapStart), ret);
+            return ret;
+        }
+    }
+
+
+    /**
+     * Specialized tokenizer for <code>LINESTRING [Z|M|ZM] (x y [z] [m], ...)</code> and <code>MULTILINESTRING [Z|M|ZM] ((x y [z] [m], ...), ...)</code>
+     */
+    private static class Scanner {
+        final ByteBuffer buffer;
+        final long offset;
+        final int limit;
+        int pos;
+        double[] ordinates = new double[64];
+
+        Scanner(ByteBuffer buffer, long offset) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.limit = buffer.limit();
+        }
+
+        void scan(int from, int to, List<LineString> out) {
+            pos = from;
+            while (true) {
+                byte[] keyword = findKeyword(to);
+                if (keyword == null) {
+                    return;
+                }
+                parseLineStrings(keyword == MULTILINESTRING, out);
+            }
+        }
+
+        /**
+         * Moves past the next LINESTRING or MULTILINESTRING keyword starting before <code>to</code>, skipping any other word
+         *
+         * @return The keyword, or null if there are no more
+         * @throws IllegalArgumentException If another type of geometry comes first
+         */
+        private byte[] findKeyword(int to) {
+            while (pos < to) {
+                byte c = buffer.get(pos);
+                if (isLetter(c) && (pos == 0 || !isLetter(buffer.get(pos-1)))) {
+                    int start = pos;
+                    if (matchesWord(LINESTRING)) {
+                        pos += LINESTRING.length;
+                        return LINESTRING;
+                    }
+                    if (matchesWord(MULTILINESTRING)) {
+                        pos += MULTILINESTRING.length;
+                        return MULTILINESTRING;
+                    }
+                    for (byte[] unsupported : UNSUPPORTED) {
+                        if (matchesWord(unsupported)) {
+                            pos += unsupported.length;
+                            if (isGeometryBody()) {
+                                pos = start;
+                                throw new IllegalArgumentException("Unsupported geometry " + new String(unsupported, StandardCharsets.US_ASCII)
+                                        + " at offset " + (offset + start) + ": Only LINESTRING and MULTILINESTRING can be read");
+                            }
+                        }
+                    }
+                    pos = start;
+                    while (pos < limit && isLetter(buffer.get(pos))) {
+                        pos++;
+                    }
+                    continue;
+                }
+                pos++;
+            }
+            return null;
+        }
+
+        /**
+         * @return True if the word is at the current position, in any case, and not just the start of a longer one
+         */
+        private boolean matchesWord(byte[] word) {
+            if (pos + word.length > limit) {
+                return false;
+            }
+            for (int i=0; i<word.length; i++) {
+                if ((buffer.get(pos+i) | 0x20) != (word[i] | 0x20)) { //Words are only letters, so this ignores the case
+                    return false;
+                }
+            }
+            return pos + word.length == limit || !isLetter(buffer.get(pos + word.length));
+        }
+
+        private boolean matchesWord(String word) {
+            return matchesWord(word.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * @return True if what follows a geometry keyword looks like WKT: <code>[Z|M|ZM] (</code> or <code>EMPTY</code>
+         */
+        private boolean isGeometryBody() {
+            int start = pos;
+            skipWhitespace();
+            if (matchesWord("ZM") || matchesWord("Z") || matchesWord("M")) {
+                pos += matchesWord("ZM") ? 2 : 1;
+                skipWhitespace();
+            }
+            boolean ret = matchesWord("EMPTY") || (pos < limit && buffer.get(pos) == '(');
+            pos = start;
+            return ret;
+        }
+
+        /**
+         * Parses what follows the keyword, adding a LineString for every part that isn't EMPTY
+         */
+        private void parseLineStrings(boolean multi, List<LineString> out) {
+            skipWhitespace();
+            boolean hasZ = false, hasM = false;
+            if (matchesWord("ZM")) {
+                hasZ = hasM = true;
+                pos += 2;
+            } else if (matchesWord("Z")) {
+                hasZ = true;
+                pos++;
+            } else if (matchesWord("M")) {
+                hasM = true;
+                pos++;
+            }
+            skipWhitespace();
+            if (matchesWord("EMPTY")) {
+                pos += "EMPTY".length();
+                return;
+            }
+            if (!multi) {
+                out.add(parseLineString(hasZ, hasM));
+                return;
+            }
+
+            expect('(');
+            while (true) {
+                skipWhitespace();
+                if (matchesWord("EMPTY")) {
+                    pos += "EMPTY".length();
+                } else {
+                    out.add(parseLineString(hasZ, hasM));
+                }
+                skipWhitespace();
+                if (pos < limit && buffer.get(pos) == ',') {
+                    pos++;
+                } else {
+                    expect(')');
+                    break;
+                }
+            }
+        }
+
+        /**
+         * Parses <code>(x y [z] [m], ...)</code>, keeping only X, Y and Z
+         */
+        private LineString parseLineString(boolean hasZ, boolean hasM) {
+            int dimension = hasZ ? 3 : 2;
+            int read = dimension + (hasM ? 1 : 0);
+            expect('(');
+
+            int count = 0;
+            while (true) {
+                for (int i=0; i<read; i++) {
+                    skipWhitespace();
+                    double value = parseNumber();
+                    if (i < dimension) {
+                        if (count == ordinates.length) {
+                            ordinates = Arrays.copyOf(ordinates, 2 * count);
+                        }
+                        ordinates[count++] = value;
+                    }
+                }
+                skipWhitespace();
+                if (pos < limit && buffer.get(pos) == ',') {
+                    pos++;
+                } else {
+                    expect(')');
+                    break;
+                }
+            }
+
+            //Packed, instead of a Coordinate object per point
+            return Polygonizer.GEOMETRY_FACTORY.createLineString(PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(Arrays.copyOf(ordinates, count), dimension));
+        }
+
+        /**
+         * Parses a decimal number.
+         *
+         * Numbers with up to 15 significant digits and a small exponent -- Which covers practically all coordinates --
+         * are computed exactly with a single multiplication or division, which gives the same result as {@link Double#parseDouble(String)}.
+         * Everything else falls back to it.
+         */
+        private double parseNumber() {
+            int start = pos;
+            boolean negative = false;
+            if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                negative = buffer.get(pos) == '-';
+                pos++;
+            }
+
+            long mantissa = 0;
+            int exponent = 0;
+            int digits = 0;
+            boolean exact = true;
+            boolean fraction = false;
+            for (; pos < limit; pos++) {
+                byte c = buffer.get(pos);
+                if (c >= '0' && c <= '9') {
+                    if (mantissa < (1L << 53) / 10) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        if (fraction) {
+                            exponent--;
+                        }
+                    } else {
+                        exact = false;
+                    }
+                    digits++;
+                } else if (c == '.' && !fraction) {
+                    fraction = true;
+                } else {
+                    break;
+                }
+            }
+            if (digits == 0) {
+                throw error("number");
+            }
+            if (pos < limit && (buffer.get(pos) == 'e' || buffer.get(pos) == 'E')) {
+                exact = false;
+                pos++;
+                if (pos < limit && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+                    pos++;
+                }
+                while (pos < limit && buffer.get(pos) >= '0' && buffer.get(pos) <= '9') {
+                    pos++;
+                }
+            }
+
+            if (exact && exponent >= -22) {
+                double value = exponent == 0 ? mantissa : mantissa / POWERS_OF_TEN[-exponent];
+                return negative ? -value : value;
+            }
+
+            byte[] text = new byte[pos - start];
+            for (int i=0; i<text.length; i++) {
+                text[i] = buffer.get(start + i);
+            }
+            return Double.parseDouble(new String(text, StandardCharsets.US_ASCII));
+        }
+
+        private void skipWhitespace() {
+            while (pos < limit && buffer.get(pos) <= ' ') {
+                pos++;
+            }
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (pos >= limit || buffer.get(pos) != c) {
+                throw error("'" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String expected) {
+            return new IllegalArgumentException("Malformed LINESTRING: Expected " + expected + " at offset " + (offset + pos));
+        }
+
+        private static boolean isLetter(byte c) {
+            return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+        }
+    }
+
+    /**
+     * Self-check of the scanner against hand-written cases: <code>java SegmentReader</code>
+     */
+    public static void main(String[] args) throws Exception {
+        String[][] cases = { //Input, and the LINESTRINGs read or the exception thrown
+            {"LINESTRING (0 0, 1 1)", "[LINESTRING (0 0, 1 1)]"},
+            {"linestring (0 0, 1 1)", "[LINESTRING (0 0, 1 1)]"},
+            {"LineString(0 0,1 1)", "[LINESTRING (0 0, 1 1)]"},
+            {"LINESTRING Z (0 0 5, 1 1 6)", "[LINESTRING (0 0 5, 1 1 6)]"},
+            {"linestring z (0 0 5, 1 1 6)", "[LINESTRING (0 0 5, 1 1 6)]"},
+            {"LINESTRING M (0 0 5, 1 1 6)", "[LINESTRING (0 0, 1 1)]"},
+            {"LINESTRING ZM (0 0 5 7, 1 1 6 8)", "[LINESTRING (0 0 5, 1 1 6)]"},
+            {"LINESTRING EMPTY\nlinestring empty\nLINESTRING (2 2, 3 3)", "[LINESTRING (2 2, 3 3)]"},
+            {"MULTILINESTRING ((0 0, 1 1), EMPTY, (2 2, 3 3))", "[LINESTRING (0 0, 1 1), LINESTRING (2 2, 3 3)]"},
+            {"MultiLineString M ((0 0 9, 1 1 9), (2 2 9, 3 3 9))", "[LINESTRING (0 0, 1 1), LINESTRING (2 2, 3 3)]"},
+            {"GEOMETRYCOLLECTION (LINESTRING (0 0, 1 1), MULTILINESTRING ((2 2, 3 3)))", "[LINESTRING (0 0, 1 1), LINESTRING (2 2, 3 3)]"},
+            {"{\"name\": \"Point of interest\", \"geom\": \"LINESTRING (0 0, 1 1)\"}", "[LINESTRING (0 0, 1 1)]"},
+            {"POINT (1 2)", "IllegalArgumentException"},
+            {"LINESTRING (0 0, 1 1)\npolygon ((0 0, 1 0, 1 1, 0 0))", "IllegalArgumentException"},
+            {"MultiPolygon EMPTY", "IllegalArgumentException"},
+            {"LINESTRING (0 0, 1 1", "IllegalArgumentException"},
+        };
+        WKTWriter writer = new WKTWriter(3);
+        for (String[] c : cases) {
+            File file = File.createTempFile("segments", ".wkt");
+            String actual;
+            try {
+                Files.write(file.toPath(), c[0].getBytes(StandardCharsets.US_ASCII));
+                List<String> lines = new ArrayList<>();
+                for (LineString line : new SegmentReader(file)) {
+                    lines.add(writer.write(line));
+                }
+                actual = lines.toString();
+            } catch (IllegalArgumentException e) {
+                actual = e.getClass().getSimpleName();
+            } finally {
+                file.delete();
+            }
+            if (!actual.equals(c[1])) {
+                throw new IllegalStateException(c[0] + ": Expected " + c[1] + ", read " + actual);
+            }
+            System.out.println(c[0].replace('\n', ' ') + ": " + actual + " - OK");
+        }
+    }
+}
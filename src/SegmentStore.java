@@ -0,0 +1,378 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+
+/**
+ * Columnar binary file of segments, which is memory-mapped and polygonized without parsing it:
+ * <code>new Polygonizer(SegmentStore.open(file))</code>
+ *
+ * The segments are LineStrings whose coordinates are read straight from the mapped file, so they stay off the heap.
+ * Both graphs read them with getX/getY, so building and tracing the graph doesn't copy the points.
+ * Coordinate objects are only created for the vertexes of the graph, and for the rings of the faces when their shells are built.
+ * Files are created from WKT or Solr JSON with {@link #write(Iterable, File, boolean)} or main, see {@link SegmentReader}.
+ *
+ * Layout, all little-endian:
+ * - Header: <code>"PSEG"</code>, version, flags, number of segments, number of points
+ * - X of every point, as doubles
+ * - Y of every point, as doubles
+ * - Index of the first point of every segment, followed by the number of points
+ *
+ * Only X and Y are kept. Segments may be sorted by their minimum X -- The order of the edges of the graph --
+ * so that building and tracing the graph reads the file mostly in order.
+ */
+public class SegmentStore implements Iterable<LineString> {
+    private static final int MAGIC = 'P' | 'S' << 8 | 'E' << 16 | 'G' << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int SORTED = 1;
+    private static final int CHUNK_BITS = 27; //Columns are mapped in chunks of 2^27 values, since a buffer can't be larger than 2GB
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final long segmentCount;
+    private final long pointCount;
+    private final boolean sorted;
+    private final Column x, y, offsets;
+
+    private SegmentStore(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException(file + ": Not a segment file");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(file + ": Not a segment file");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + ": Unsupported version " + version);
+            }
+            this.sorted = (header.getInt() & SORTED) != 0;
+            header.getInt();
+            this.segmentCount = header.getLong();
+            this.pointCount = header.getLong();
+            if (channel.size() != HEADER_SIZE + 16 * pointCount + 8 * (segmentCount + 1)) {
+                throw new IOException(file + ": Truncated segment file");
+            }
+
+            this.x = new Column(channel, HEADER_SIZE, pointCount);
+            this.y = new Column(channel, HEADER_SIZE + 8 * pointCount, pointCount);
+            this.offsets = new Column(channel, HEADER_SIZE + 16 * pointCount, segmentCount + 1);
+        }
+    }
+
+    /**
+     * Maps the file. It stays mapped for as long as the segments are used, even if the store itself isn't.
+     */
+    public static SegmentStore open(File file) throws IOException {
+        return new SegmentStore(file);
+    }
+
+    public long size() {
+        return segmentCount;
+    }
+
+    public long pointCount() {
+        return pointCount;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return A LineString backed by the mapped file
+     */
+    public LineString get(long segment) {
+        long start = offsets.getLong(segment);
+        int size = (int)(offsets.getLong(segment + 1) - start);
+        return Polygonizer.GEOMETRY_FACTORY.createLineString(new Sequence(start, size));
+    }
+
+    @Override
+    public Iterator<LineString> iterator() {
+        return new AbstractIterator<LineString>() {
+            long next = 0;
+
+            @Override
+            protected LineString computeNext() {
+                return next < segmentCount ? get(next++) : endOfData();
+            }
+        };
+    }
+
+    /**
+     * Values of a column, mapped in several buffers if needed
+     */
+    private static class Column {
+        final ByteBuffer[] chunks;
+
+        Column(FileChannel channel, long position, long count) throws IOException {
+            chunks = new ByteBuffer[(int)((count + (1L << CHUNK_BITS) - 1) >>> CHUNK_BITS)];
+            for (int i=0; i<chunks.length; i++) {
+                long first = (long)i << CHUNK_BITS;
+                long size = Math.min(1L << CHUNK_BITS, count - first);
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position + 8 * first, 8 * size).order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+
+        double getDouble(long index) {
+            return chunks[(int)(index >>> CHUNK_BITS)].getDouble((int)(index & ((1 << CHUNK_BITS) - 1)) << 3);
+        }
+
+        long getLong(long index) {
+            return chunks[(int)(index >>> CHUNK_BITS)].getLong((int)(index & ((1 << CHUNK_BITS) - 1)) << 3);
+        }
+    }
+
+    /**
+     * Read-only view of the points of a segment
+     */
+    private class Sequence implements CoordinateSequence {
+        final long start;
+        final int size;
+
+        Sequence(long start, int size) {
+            this.start = start;
+            this.size = size;
+        }
+
+        @Override
+        public int getDimension() {
+            return 2;
+        }
+
+        /**
+         * Allocates a new Coordinate, see {@link #getX(int)} and {@link #getY(int)}
+         */
+        @Override
+        public Coordinate getCoordinate(int i) {
+            return new Coordinate(getX(i), getY(i));
+        }
+
+        @Override
+        public Coordinate getCoordinateCopy(int i) {
+            return getCoordinate(i);
+        }
+
+        @Override
+        public void getCoordinate(int i, Coordinate coord) {
+            coord.x = getX(i);
+            coord.y = getY(i);
+        }
+
+        @Override
+        public double getX(int i) {
+            return x.getDouble(start + i);
+        }
+
+        @Override
+        public double getY(int i) {
+            return y.getDouble(start + i);
+        }
+
+        @Override
+        public double getOrdinate(int i, int ordinate) {
+            switch (ordinate) {
+                case X:
+                    return getX(i);
+                case Y:
+                    return getY(i);
+                default:
+                    return Double.NaN;
+            }
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void setOrdinate(int i, int ordinate, double value) {
+            throw new UnsupportedOperationException("Segments of a SegmentStore are read-only");
+        }
+
+        @Override
+        public Coordinate[] toCoordinateArray() {
+            Coordinate[] ret = new Coordinate[size];
+            for (int i=0; i<size; i++) {
+                ret[i] = getCoordinate(i);
+            }
+            return ret;
+        }
+
+        @Override
+        public Envelope expandEnvelope(Envelope env) {
+            for (int i=0; i<size; i++) {
+                env.expandToInclude(getX(i), getY(i));
+            }
+            return env;
+        }
+
+        /**
+         * Geometries are only cloned to be modified, so the clone is a packed copy on the heap
+         */
+        @Override
+        public Object clone() {
+            double[] ordinates = new double[2 * size];
+            for (int i=0; i<size; i++) {
+                ordinates[2*i] = getX(i);
+                ordinates[2*i+1] = getY(i);
+            }
+            return PackedCoordinateSequenceFactory.DOUBLE_FACTORY.create(ordinates, 2);
+        }
+    }
+
+    /**
+     * Writes the segments to a new file, streaming them unless they are sorted
+     *
+     * @param sort If true, the segments are sorted by their minimum X, which requires holding them all in memory
+     * @return Number of segments written
+     */
+    public static long write(Iterable<LineString> segments, File file, boolean sort) throws IOException {
+        if (sort) {
+            List<LineString> list = Lists.newArrayList(segments);
+            Collections.sort(list, new Comparator<LineString>() {
+                @Override
+                public int compare(LineString o1, LineString o2) {
+                    return Double.compare(o1.getEnvelopeInternal().getMinX(), o2.getEnvelopeInternal().getMinX());
+                }
+            });
+            segments = list;
+        }
+
+        //X goes straight to the file, while Y and the offsets are appended at the end
+        File yFile = File.createTempFile("segments", ".y", file.getAbsoluteFile().getParentFile());
+        File offsetFile = File.createTempFile("segments", ".offsets", file.getAbsoluteFile().getParentFile());
+        try (Output out = new Output(file); Output yOut = new Output(yFile); Output offsetOut = new Output(offsetFile)) {
+            out.skip(HEADER_SIZE);
+            long segmentCount = 0, pointCount = 0;
+            for (LineString segment : segments) {
+                CoordinateSequence points = segment.getCoordinateSequence();
+                offsetOut.putLong(pointCount);
+                for (int i=0; i<points.size(); i++) {
+                    out.putDouble(points.getX(i));
+                    yOut.putDouble(points.getY(i));
+                }
+                segmentCount++;
+                pointCount += points.size();
+            }
+            offsetOut.putLong(pointCount);
+
+            out.append(yOut);
+            out.append(offsetOut);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(sort ? SORTED : 0);
+            header.putInt(0);
+            header.putLong(segmentCount);
+            header.putLong(pointCount);
+            header.flip();
+            out.writeAt(header, 0);
+            return segmentCount;
+        } finally {
+            yFile.delete();
+            offsetFile.delete();
+        }
+    }
+
+    /**
+     * Buffered output to a file
+     */
+    private static class Output implements AutoCloseable {
+        final FileChannel channel;
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(File file) throws IOException {
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        void putDouble(double value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putDouble(value);
+        }
+
+        void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        void skip(int bytes) throws IOException {
+            flush();
+            channel.position(channel.position() + bytes);
+        }
+
+        /**
+         * Copies everything written to the other output at the end of this one
+         */
+        void append(Output other) throws IOException {
+            flush();
+            other.flush();
+            long size = other.channel.size();
+            for (long copied=0; copied<size; ) {
+                copied += other.channel.transferTo(copied, size - copied, channel);
+            }
+        }
+
+        void writeAt(ByteBuffer data, long position) throws IOException {
+            flush();
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Converts a WKT or Solr JSON file: <code>java SegmentStore input.wkt output.seg [sort]</code>
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java SegmentStore input.wkt output.seg [sort]");
+            System.exit(1);
+        }
+        Stopwatch timer = Stopwatch.createStarted();
+        long count = write(new SegmentReader(new File(args[0])), new File(args[1]), args.length > 2 && args[2].equals("sort"));
+        System.out.println(count + " segments written to " + args[1] + " - " + timer);
+    }
+}
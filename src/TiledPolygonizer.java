@@ -0,0 +1,215 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import com.google.common.base.Function;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Polygonizes a network one X-strip at a time, so that only a few tile graphs are in memory at once.
+ *
+ * Segments are assigned to strips by their Xmin, with strip borders chosen so that all strips have about the same number of segments.
+ * A vertex is a border vertex if some segment leaves its strip to reach it -- Only those can have their edges split between tiles.
+ *
+ * Faces that don't go through any border vertex see the complete star of every vertex, so they are identical in the tile and in the full graph.
+ * The segments of all the other faces are collected into a seam graph, which contains the complete star of every border vertex,
+ * and the faces of the seam graph that go through border vertexes are exactly the missing faces of the full graph.
+ *
+ * Since segments keep their relative order, every face starts from the same edge as in a global {@link Polygonizer}, so the cycles are identical.
+ *
+ * The segments are read again on every pass instead of being kept, so they can come from disk, e.g. a {@link SegmentStore}:
+ * - One pass samples their Xmin to place the borders, and another finds the border vertexes
+ * - Every tile is polygonized twice, first to find its seam segments, and then to stream its faces, so each pass reads <code>window</code> strips
+ * The faces of a tile all start in its strip, so the tiles produce them sorted by Xmin, and {@link #polygons} assigns the holes
+ * with the streaming sweep of {@link Polygonizer#fix_topology(Iterable, Executor, int, int)}.
+ * What stays in memory is up to 2 * <code>window</code> strips, the seam graph and its faces, and the faces still crossing the sweep line.
+ */
+public class TiledPolygonizer {
+    private static final int SAMPLE_SIZE = 1 << 16; //Xmin sampled to place the borders
+
+    private final Iterable<LineString> segments;
+    private final int tiles;
+    private final Executor executor;
+    private final int window;
+
+    /**
+     * @param segments Read once per pass, in the same order every time
+     * @param tiles Number of X-strips
+     * @param window Maximum number of tiles being polygonized at the same time
+     */
+    public TiledPolygonizer(Iterable<LineString> segments, int tiles, Executor executor, int window) {
+        this.segments = segments;
+        this.tiles = tiles;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Same cycles as {@link Polygonizer#cycles()}, sorted by Xmin.
+     * The seam is polygonized when iteration starts, and the tiles as the cycles are consumed.
+     */
+    public Iterable<Polygonizer.Cycle> cycles() {
+        return new Iterable<Polygonizer.Cycle>() {
+            @Override
+            public Iterator<Polygonizer.Cycle> iterator() {
+                final double[] borders = borders();
+                final Set<Coordinate> borderVertexes = borderVertexes(borders);
+
+                //Stitch the faces that cross tile borders
+                List<LineString> seamSegments = new ArrayList<>();
+                Iterable<List<LineString>> tileSeams = ParallelTransform.transform(strips(borders), new Function<List<LineString>, List<LineString>>() {
+                    @Override
+                    public List<LineString> apply(List<LineString> strip) {
+                        List<LineString> ret = new ArrayList<>();
+                        new Polygonizer(strip).splitFaces(borderVertexes, null, null, ret);
+                        return ret;
+                    }
+                }, executor, window, true);
+                for (List<LineString> tileSeam : tileSeams) {
+                    seamSegments.addAll(tileSeam);
+                }
+                List<Polygonizer.Cycle> seamCycles = new ArrayList<>();
+                new Polygonizer(seamSegments).splitFaces(borderVertexes, null, seamCycles, null);
+                seamSegments = null;
+
+                //Polygonize the tiles again, keeping the faces inside them this time
+                Iterable<List<Polygonizer.Cycle>> tileCycles = ParallelTransform.transform(strips(borders), new Function<List<LineString>, List<Polygonizer.Cycle>>() {
+                    @Override
+                    public List<Polygonizer.Cycle> apply(List<LineString> strip) {
+                        List<Polygonizer.Cycle> ret = new ArrayList<>();
+                        new Polygonizer(strip).splitFaces(borderVertexes, ret, null, null);
+                        return ret;
+                    }
+                }, executor, window, true);
+
+                return Iterators.mergeSorted(Arrays.asList(Iterables.concat(tileCycles).iterator(), seamCycles.iterator()), new Comparator<Polygonizer.Cycle>() {
+                    @Override
+                    public int compare(Polygonizer.Cycle o1, Polygonizer.Cycle o2) {
+                        return Double.compare(o1.envelope.getMinX(), o2.envelope.getMinX());
+                    }
+                });
+            }
+        };
+    }
+
+    public Iterable<Polygon> polygons(double streetBuffer, double outerBuffer, double innerBuffer) {
+        return Polygonizer.bufferedPolygons(Polygonizer.fix_topology(cycles(), null, 0, 0), streetBuffer, outerBuffer, innerBuffer);
+    }
+
+    public Iterator<Polygon> iterator(double streetBuffer, double outerBuffer, double innerBuffer) {
+        return polygons(streetBuffer, outerBuffer, innerBuffer).iterator();
+    }
+
+    public List<Polygon> get(double streetBuffer, double outerBuffer, double innerBuffer) {
+        return Lists.newArrayList(polygons(streetBuffer, outerBuffer, innerBuffer));
+    }
+
+    /**
+     * Cuts strips at Xmin quantiles, estimated from a sample of every 2^k-th segment, k growing as needed to fit
+     */
+    private double[] borders() {
+        double[] sample = new double[SAMPLE_SIZE];
+        int sampled = 0;
+        long stride = 1, count = 0;
+        for (LineString segment : segments) {
+            if (count++ % stride != 0) {
+                continue;
+            }
+            if (sampled == sample.length) { //Keep every other one
+                for (int i=0; i<sampled/2; i++) {
+                    sample[i] = sample[2*i];
+                }
+                sampled /= 2;
+                stride *= 2;
+                if ((count - 1) % stride != 0) {
+                    continue;
+                }
+            }
+            sample[sampled++] = segment.getEnvelopeInternal().getMinX();
+        }
+        Arrays.sort(sample, 0, sampled);
+        double[] borders = new double[sampled > 0 ? Math.max(0, tiles - 1) : 0];
+        for (int i=0; i<borders.length; i++) {
+            borders[i] = sample[(int)((long)(i+1) * sampled / tiles)];
+        }
+        return borders;
+    }
+
+    private Set<Coordinate> borderVertexes(double[] borders) {
+        Set<Coordinate> ret = new HashSet<>();
+        for (LineString segment : segments) {
+            int strip = strip(borders, segment.getEnvelopeInternal().getMinX());
+            Coordinate c1 = segment.getCoordinateN(0);
+            Coordinate c2 = segment.getCoordinateN(segment.getNumPoints()-1);
+            if (strip(borders, c1.x) != strip) {
+                ret.add(c1);
+            }
+            if (strip(borders, c2.x) != strip) {
+                ret.add(c2);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Segments of every strip, in their original order, read <code>window</code> strips per pass
+     */
+    private Iterable<List<LineString>> strips(final double[] borders) {
+        return new Iterable<List<LineString>>() {
+            @Override
+            public Iterator<List<LineString>> iterator() {
+                return new AbstractIterator<List<LineString>>() {
+                    ArrayDeque<List<LineString>> batch = new ArrayDeque<>();
+                    int next = 0; //First strip not read yet
+
+                    @Override
+                    protected List<LineString> computeNext() {
+                        if (batch.isEmpty()) {
+                            if (next > borders.length) {
+                                return endOfData();
+                            }
+                            int first = next;
+                            next = Math.min(first + window, borders.length + 1);
+                            for (int i=first; i<next; i++) {
+                                batch.add(new ArrayList<LineString>());
+                            }
+                            List<List<LineString>> strips = new ArrayList<>(batch);
+                            for (LineString segment : segments) {
+                                int strip = strip(borders, segment.getEnvelopeInternal().getMinX());
+                                if (strip >= first && strip < next) {
+                                    strips.get(strip - first).add(segment);
+                                }
+                            }
+                        }
+                        return batch.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    private static int strip(double[] borders, double x) {
+        int lo = 0, hi = borders.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (borders[mid] <= x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}